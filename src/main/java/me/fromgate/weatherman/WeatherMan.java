@@ -25,9 +25,13 @@ package me.fromgate.weatherman;
 
 
 import me.fromgate.weatherman.commands.Commander;
+import me.fromgate.weatherman.environment.EnvironmentWatcher;
+import me.fromgate.weatherman.environment.RegionIndex;
 import me.fromgate.weatherman.localtime.LocalTime;
 import me.fromgate.weatherman.localweather.LocalWeather;
 import me.fromgate.weatherman.playerconfig.PlayerConfig;
+import me.fromgate.weatherman.queue.History;
+import me.fromgate.weatherman.queue.QueueManager;
 import me.fromgate.weatherman.util.BiomeTools;
 import me.fromgate.weatherman.util.Cfg;
 import me.fromgate.weatherman.util.Forester;
@@ -38,7 +42,6 @@ import me.fromgate.weatherman.util.WMWorldEdit;
 import me.fromgate.weatherman.util.lang.BukkitMessenger;
 import me.fromgate.weatherman.util.lang.M;
 import me.fromgate.weatherman.util.tasks.InfoTask;
-import me.fromgate.weatherman.util.tasks.LocalWeatherTask;
 import org.bstats.MetricsLite;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -61,16 +64,26 @@ public class WeatherMan extends JavaPlugin {
         M.setDebugMode(Cfg.debug);
         Commander.init(this);
         WMWorldEdit.init();
-        PlayerConfig.init(this);
+        // Biome names are used to read player data (yml-files are migrated to binary store in init)
         BiomeTools.initBioms();
+        PlayerConfig.init(this);
         Repopulator.init();
         Forester.init();
         LocalTime.init();
         LocalWeather.init();
         getServer().getPluginManager().registerEvents(new WMListener(this), this);
-        new LocalWeatherTask().runTaskTimer(this, 30, 11);
+        getServer().getPluginManager().registerEvents(new EnvironmentWatcher(), this);
+        RegionIndex.init(this);
+        History.init();
+        getServer().getScheduler().runTask(this, QueueManager::resumeQueues);
         new InfoTask().runTaskTimer(this, 30, 8);
         UpdateChecker.init(this, "WeatherMan", "38125", "wm", Cfg.checkUpdates);
         new MetricsLite(this);
     }
+
+    @Override
+    public void onDisable() {
+        QueueManager.shutdown();
+        PlayerConfig.shutdown();
+    }
 }
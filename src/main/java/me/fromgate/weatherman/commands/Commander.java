@@ -30,8 +30,11 @@ import me.fromgate.weatherman.commands.wm.WmHelp;
 import me.fromgate.weatherman.commands.wm.WmInfo;
 import me.fromgate.weatherman.commands.wm.WmList;
 import me.fromgate.weatherman.commands.wm.WmPopulate;
+import me.fromgate.weatherman.commands.wm.WmRedo;
 import me.fromgate.weatherman.commands.wm.WmReplace;
 import me.fromgate.weatherman.commands.wm.WmSet;
+import me.fromgate.weatherman.commands.wm.WmSnapshot;
+import me.fromgate.weatherman.commands.wm.WmUndo;
 import me.fromgate.weatherman.commands.wm.WmdWand;
 import me.fromgate.weatherman.commands.wmt.WtmBiome;
 import me.fromgate.weatherman.commands.wmt.WtmPlayer;
@@ -66,7 +69,7 @@ public class Commander implements TabExecutor {
         plugin = plg;
         commander = new Commander();
         helpCommand = null;
-        addNewCommands(WmHelp.class, WmSet.class, WmReplace.class, WmPopulate.class,
+        addNewCommands(WmHelp.class, WmSet.class, WmReplace.class, WmPopulate.class, WmUndo.class, WmRedo.class, WmSnapshot.class,
                 WmdWand.class, WmGive.class, WmCheck.class, WmInfo.class, WmList.class,
                 WthPlayer.class, WthRegion.class, WthBiome.class, WthWorld.class,
                 WtmPlayer.class, WtmRegion.class, WtmBiome.class, WtmWorld.class,
@@ -31,7 +31,7 @@ import org.bukkit.Utility;
 import org.bukkit.command.CommandSender;
 
 @CmdDefine(command = "weatherman", subCommands = "replace", permission = "weatherman.cmdbiome",
-        description = M.CMD_REPLACE, shortDescription = "/wm replace source:<biome1> biome:<biome2> [fill:true] [radius:<radius> [loc:<world,x,z]|region:region]",
+        description = M.CMD_REPLACE, shortDescription = "/wm replace source:<biome1> biome:<biome2> [fill:true] [radius:<radius> [loc:<world,x,z]|region:region] [offline:true]",
         allowConsole = true)
 public class WmReplace extends Cmd {
     @Utility
@@ -31,7 +31,7 @@ import org.bukkit.command.CommandSender;
 
 
 @CmdDefine(command = "weatherman", subCommands = "set", permission = "weatherman.cmdbiome",
-        description = M.CMD_SET, shortDescription = "/wm set biome:<biome> [radius:<radius> [loc:<world,x,z]|region:region]",
+        description = M.CMD_SET, shortDescription = "/wm set biome:<biome> [radius:<radius> [loc:<world,x,z]|region:region] [offline:true]",
         allowConsole = true)
 public class WmSet extends Cmd {
 
@@ -0,0 +1,52 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *
+ *  This file is part of WeatherMan.
+ *
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package me.fromgate.weatherman.commands.wm;
+
+import me.fromgate.weatherman.commands.Cmd;
+import me.fromgate.weatherman.commands.CmdDefine;
+import me.fromgate.weatherman.queue.BiomeSnapshot;
+import me.fromgate.weatherman.util.ParamUtil;
+import me.fromgate.weatherman.util.lang.M;
+import org.bukkit.command.CommandSender;
+
+import java.util.Map;
+
+
+@CmdDefine(command = "weatherman", subCommands = "snapshot", permission = "weatherman.snapshot",
+        description = M.CMD_SNAPSHOT, shortDescription = "/wm snapshot <save|load> <name> [region:region] [offline:true]",
+        allowConsole = true)
+public class WmSnapshot extends Cmd {
+
+    @Override
+    public boolean execute(CommandSender sender, String[] params) {
+        if (params.length < 3) return false;
+        String name = params[2];
+        Map<String, String> extra = ParamUtil.parseParams(params, 3, "region");
+        if (params[1].equalsIgnoreCase("save"))
+            return BiomeSnapshot.save(sender, name, ParamUtil.getParam(extra, "region", ""));
+        if (params[1].equalsIgnoreCase("load"))
+            return BiomeSnapshot.load(sender, name, ParamUtil.getParam(extra, "offline", false));
+        return false;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.environment;
+
+import me.fromgate.weatherman.localtime.LocalTime;
+import me.fromgate.weatherman.localweather.LocalWeather;
+import me.fromgate.weatherman.localweather.WeatherState;
+import me.fromgate.weatherman.playerconfig.PlayerConfig;
+import me.fromgate.weatherman.util.WMWorldEdit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.entity.Player;
+
+/**
+ * Resolves weather and time together (personal, region, biome, world),
+ * using single region rules lookup and single biome read.
+ * Biome rules are compiled to arrays indexed by biome ordinal.
+ */
+public class EnvironmentResolver {
+
+    private static final Biome[] BIOMES = Biome.values();
+
+    private static WeatherState[] biomeWeather = null;
+    private static Long[] biomeTime = null;
+
+    /**
+     * Rules were changed, biome arrays will be compiled again
+     */
+    public static void invalidate() {
+        biomeWeather = null;
+        biomeTime = null;
+    }
+
+    private static void compile() {
+        WeatherState[] weather = new WeatherState[BIOMES.length];
+        Long[] time = new Long[BIOMES.length];
+        for (Biome biome : BIOMES) {
+            weather[biome.ordinal()] = LocalWeather.getBiomeRain(biome);
+            time[biome.ordinal()] = LocalTime.getBiomeTime(biome);
+        }
+        biomeWeather = weather;
+        biomeTime = time;
+    }
+
+    public static ResolvedEnvironment resolve(Player player) {
+        return resolve(player, player.getLocation());
+    }
+
+    public static ResolvedEnvironment resolve(Player player, Location loc) {
+        return resolve(player, loc, null);
+    }
+
+    /**
+     * @param player     - player to check personal weather and time, could be null
+     * @param loc        - location to resolve
+     * @param worldStorm - weather state of world, null to use current (or configured) world weather
+     */
+    public static ResolvedEnvironment resolve(Player player, Location loc, Boolean worldStorm) {
+        if (biomeWeather == null || biomeTime == null) compile();
+        World world = loc.getWorld();
+        Biome biome = world.getBiome(loc.getBlockX(), loc.getBlockZ());
+        RegionRules regionRules = WMWorldEdit.isWG() && (LocalWeather.hasRegionRules() || LocalTime.hasRegionRules()) ?
+                RegionIndex.getRules(loc) : RegionRules.NONE;
+
+        WeatherState weather = player == null ? WeatherState.UNSET : PlayerConfig.getPersonalWeather(player);
+        if (weather == WeatherState.UNSET) weather = regionRules.getWeather();
+        if (weather == WeatherState.UNSET) weather = biomeWeather[biome.ordinal()];
+        boolean rain;
+        if (weather == WeatherState.UNSET) {
+            rain = worldStorm == null ? LocalWeather.getWorldRain(world) : worldStorm;
+        } else {
+            rain = weather == WeatherState.RAIN;
+        }
+
+        Long time = player == null ? null : PlayerConfig.getPersonalTime(player);
+        if (time == null) time = regionRules.getTime();
+        if (time == null) time = biomeTime[biome.ordinal()];
+        if (time == null) time = LocalTime.getWorldTime(world);
+
+        return new ResolvedEnvironment(rain, time);
+    }
+}
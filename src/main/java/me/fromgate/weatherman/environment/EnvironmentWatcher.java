@@ -0,0 +1,180 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.environment;
+
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.localtime.LocalTime;
+import me.fromgate.weatherman.localweather.LocalWeather;
+import me.fromgate.weatherman.util.Cfg;
+import me.fromgate.weatherman.util.WMWorldEdit;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Updates local weather and time of player only when it could be changed:
+ * player moved to another chunk, biome or region (if there are biome or region rules),
+ * player joined, respawned or teleported, or local weather/time rules were changed.
+ */
+public class EnvironmentWatcher implements Listener {
+
+    private static Map<UUID, PlayerEnvironment> environments = new HashMap<>();
+    private static Set<UUID> pending = new HashSet<>();
+    private static boolean updateAll = false;
+    private static boolean updateScheduled = false;
+
+    /**
+     * Local weather or time rules were changed, update all online players
+     */
+    public static void invalidate() {
+        EnvironmentResolver.invalidate();
+        RegionIndex.invalidate();
+        updateAll = true;
+        scheduleUpdate();
+    }
+
+    public static void invalidate(Player player) {
+        pending.add(player.getUniqueId());
+        scheduleUpdate();
+    }
+
+    private static void scheduleUpdate() {
+        if (updateScheduled) return;
+        updateScheduled = true;
+        Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), () -> {
+            updateScheduled = false;
+            if (updateAll) {
+                Bukkit.getOnlinePlayers().forEach(EnvironmentWatcher::update);
+            } else {
+                pending.forEach(uuid -> {
+                    Player player = Bukkit.getPlayer(uuid);
+                    if (player != null && player.isOnline()) update(player);
+                });
+            }
+            updateAll = false;
+            pending.clear();
+        });
+    }
+
+    public static void update(Player player) {
+        update(player, player.getLocation());
+    }
+
+    private static void update(Player player, Location loc) {
+        environments.put(player.getUniqueId(), new PlayerEnvironment(loc));
+        if (!Cfg.localWeatherEnable && !Cfg.localTimeEnable) return;
+        ResolvedEnvironment environment = EnvironmentResolver.resolve(player, loc);
+        LocalWeather.updatePlayerRain(player, environment.isRain());
+        LocalTime.updatePlayerTime(player, environment.getTime());
+    }
+
+    private static boolean hasBiomeRules() {
+        return LocalWeather.hasBiomeRules() || LocalTime.hasBiomeRules();
+    }
+
+    private static boolean hasRegionRules() {
+        return WMWorldEdit.isWG() && (LocalWeather.hasRegionRules() || LocalTime.hasRegionRules());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if (to == null) return;
+        if (from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ()) {
+            return;
+        }
+        Player player = event.getPlayer();
+        PlayerEnvironment environment = environments.get(player.getUniqueId());
+        if (environment == null || environment.isChanged(to)) {
+            update(player, to);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        update(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        environments.remove(uuid);
+        pending.remove(uuid);
+    }
+
+    private static class PlayerEnvironment {
+        private final World world;
+        private final int chunkX;
+        private final int chunkZ;
+        private final Biome biome;
+        private final RegionRules regionRules;
+
+        PlayerEnvironment(Location loc) {
+            this.world = loc.getWorld();
+            this.chunkX = loc.getBlockX() >> 4;
+            this.chunkZ = loc.getBlockZ() >> 4;
+            this.biome = hasBiomeRules() ? world.getBiome(loc.getBlockX(), loc.getBlockZ()) : null;
+            this.regionRules = hasRegionRules() ? RegionIndex.getRules(loc) : null;
+        }
+
+        boolean isChanged(Location loc) {
+            if (!world.equals(loc.getWorld())) return true;
+            if (chunkX != loc.getBlockX() >> 4 || chunkZ != loc.getBlockZ() >> 4) return true;
+            if (hasBiomeRules() && biome != world.getBiome(loc.getBlockX(), loc.getBlockZ())) return true;
+            return hasRegionRules() && !RegionIndex.getRules(loc).equals(regionRules);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.environment;
+
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionType;
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.localtime.LocalTime;
+import me.fromgate.weatherman.localweather.LocalWeather;
+import me.fromgate.weatherman.localweather.WeatherState;
+import me.fromgate.weatherman.util.WMWorldEdit;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index of WorldGuard regions used in local weather and time rules.
+ * <p>
+ * Index contains regions with rules and regions inheriting rules from parents.
+ * Every world is divided to cells (64x64 blocks), each cell contains regions intersecting it.
+ * For every requested chunk regions are sorted by priority and cached, if regions cover
+ * whole chunk the result is cached too.
+ * <p>
+ * Rule of region with highest priority is used (weather and time are resolved separately),
+ * region without own rule uses rule of its parent. Like in WorldGuard, parents of applicable
+ * regions are ignored, so child region overrides its parent regardless of priority.
+ * <p>
+ * Index is rebuilt when rules are changed or when regions are changed in WorldGuard
+ * (state of every region is compared, so changes of parent chains are detected too).
+ */
+public class RegionIndex {
+
+    private static final int CELL_SHIFT = 6;
+    private static final int MAX_REGION_CELLS = 4096;
+    private static final int MAX_CACHED_CHUNKS = 16384;
+
+    private static Map<World, WorldIndex> worlds = new HashMap<>();
+
+    public static void init(WeatherMan plugin) {
+        Bukkit.getScheduler().runTaskTimer(plugin, RegionIndex::checkRegions, 100, 100);
+    }
+
+    public static void invalidate() {
+        worlds.clear();
+    }
+
+    /**
+     * Get effective region rules at location
+     */
+    public static RegionRules getRules(Location loc) {
+        if (!WMWorldEdit.isWG()) return RegionRules.NONE;
+        WorldIndex index = worlds.computeIfAbsent(loc.getWorld(), WorldIndex::new);
+        return index.getRules(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    /**
+     * WorldGuard has no events for region changes, so indexed regions
+     * are periodically compared with regions provided by region manager
+     */
+    private static void checkRegions() {
+        if (worlds.isEmpty()) return;
+        boolean changed = false;
+        for (WorldIndex index : worlds.values()) {
+            if (index.isChanged()) {
+                changed = true;
+                break;
+            }
+        }
+        if (changed) EnvironmentWatcher.invalidate();
+    }
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static class WorldIndex {
+        private final World world;
+        private final int regionCount;
+        // State of all regions of world at the moment index was built
+        private final Map<ProtectedRegion, RegionState> states = new IdentityHashMap<>();
+        private final List<IndexedRegion> regions = new ArrayList<>();
+        private final Map<Long, List<IndexedRegion>> cells = new HashMap<>();
+        private final List<IndexedRegion> largeRegions = new ArrayList<>();
+        private final Map<Long, ChunkRules> chunks = new HashMap<>();
+
+        WorldIndex(World world) {
+            this.world = world;
+            RegionManager manager = WMWorldEdit.getRegionManager(world);
+            if (manager == null) {
+                regionCount = 0;
+                return;
+            }
+            Map<String, ProtectedRegion> all = manager.getRegions();
+            regionCount = all.size();
+            for (ProtectedRegion region : all.values()) {
+                states.put(region, new RegionState(region));
+            }
+            for (ProtectedRegion region : all.values()) {
+                if (!region.isPhysicalArea()) continue;
+                WeatherState weather = WeatherState.UNSET;
+                Long time = null;
+                int depth = 0;
+                for (ProtectedRegion r = region; r != null && depth < 32; r = r.getParent(), depth++) {
+                    if (weather == WeatherState.UNSET) weather = LocalWeather.getRegionRain(r.getId());
+                    if (time == null) time = LocalTime.getRegionTime(r.getId());
+                }
+                if (weather == WeatherState.UNSET && time == null) continue;
+                IndexedRegion indexed = new IndexedRegion(region, weather, time);
+                regions.add(indexed);
+                addRegion(indexed);
+            }
+        }
+
+        private void addRegion(IndexedRegion region) {
+            int minX = region.minX >> CELL_SHIFT;
+            int minZ = region.minZ >> CELL_SHIFT;
+            int maxX = region.maxX >> CELL_SHIFT;
+            int maxZ = region.maxZ >> CELL_SHIFT;
+            if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > MAX_REGION_CELLS) {
+                largeRegions.add(region);
+                return;
+            }
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    cells.computeIfAbsent(key(x, z), k -> new ArrayList<>(2)).add(region);
+                }
+            }
+        }
+
+        RegionRules getRules(int x, int y, int z) {
+            if (regions.isEmpty()) return RegionRules.NONE;
+            long chunkKey = key(x >> 4, z >> 4);
+            ChunkRules chunk = chunks.get(chunkKey);
+            if (chunk == null) {
+                if (chunks.size() >= MAX_CACHED_CHUNKS) chunks.clear();
+                chunk = new ChunkRules(x >> 4, z >> 4, cells.get(key(x >> CELL_SHIFT, z >> CELL_SHIFT)), largeRegions);
+                chunks.put(chunkKey, chunk);
+            }
+            return chunk.getRules(x, y, z);
+        }
+
+        /**
+         * Check that regions were not added or removed, parents, priorities and flags of regions
+         * were not changed and indexed regions were not changed
+         */
+        boolean isChanged() {
+            RegionManager manager = WMWorldEdit.getRegionManager(world);
+            if (manager == null) return !regions.isEmpty();
+            Map<String, ProtectedRegion> all = manager.getRegions();
+            if (all.size() != regionCount) return true;
+            for (ProtectedRegion region : all.values()) {
+                RegionState state = states.get(region);
+                if (state == null || state.isChanged(region)) return true;
+            }
+            for (IndexedRegion region : regions) {
+                if (region.isChanged(manager.getRegion(region.region.getId()))) return true;
+            }
+            return false;
+        }
+    }
+
+    private static class ChunkRules {
+        private final IndexedRegion[] candidates;
+        private final RegionRules uniform;
+
+        ChunkRules(int chunkX, int chunkZ, List<IndexedRegion> cell, List<IndexedRegion> largeRegions) {
+            int minX = chunkX << 4;
+            int minZ = chunkZ << 4;
+            int maxX = minX + 15;
+            int maxZ = minZ + 15;
+            List<IndexedRegion> list = new ArrayList<>();
+            for (IndexedRegion region : cell == null ? Collections.<IndexedRegion>emptyList() : cell) {
+                if (region.intersects(minX, minZ, maxX, maxZ)) list.add(region);
+            }
+            for (IndexedRegion region : largeRegions) {
+                if (region.intersects(minX, minZ, maxX, maxZ)) list.add(region);
+            }
+            list.sort(Comparator.comparingInt((IndexedRegion r) -> -r.priority).thenComparing(r -> r.region.getId()));
+            this.candidates = list.toArray(new IndexedRegion[0]);
+            boolean covered = true;
+            for (IndexedRegion region : candidates) {
+                if (!region.covers(minX, minZ, maxX, maxZ)) {
+                    covered = false;
+                    break;
+                }
+            }
+            this.uniform = covered ? resolve(minX, 0, minZ) : null;
+        }
+
+        RegionRules getRules(int x, int y, int z) {
+            return uniform != null ? uniform : resolve(x, y, z);
+        }
+
+        private RegionRules resolve(int x, int y, int z) {
+            List<IndexedRegion> applicable = new ArrayList<>(2);
+            for (IndexedRegion region : candidates) {
+                if (region.region.contains(x, y, z)) applicable.add(region);
+            }
+            Set<ProtectedRegion> parents = Collections.emptySet();
+            if (applicable.size() > 1) {
+                parents = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (IndexedRegion region : applicable) {
+                    int depth = 0;
+                    for (ProtectedRegion r = region.parent; r != null && depth < 32; r = r.getParent(), depth++) {
+                        parents.add(r);
+                    }
+                }
+            }
+            WeatherState weather = WeatherState.UNSET;
+            Long time = null;
+            for (IndexedRegion region : applicable) {
+                if (parents.contains(region.region)) continue;
+                if (weather == WeatherState.UNSET) weather = region.weather;
+                if (time == null) time = region.time;
+                if (weather != WeatherState.UNSET && time != null) break;
+            }
+            return RegionRules.of(weather, time);
+        }
+    }
+
+    private static class RegionState {
+        private final ProtectedRegion parent;
+        private final int priority;
+        private final int flags;
+
+        RegionState(ProtectedRegion region) {
+            this.parent = region.getParent();
+            this.priority = region.getPriority();
+            this.flags = region.getFlags().hashCode();
+        }
+
+        boolean isChanged(ProtectedRegion region) {
+            return parent != region.getParent() || priority != region.getPriority() || flags != region.getFlags().hashCode();
+        }
+    }
+
+    private static class IndexedRegion {
+        private final ProtectedRegion region;
+        private final ProtectedRegion parent;
+        private final WeatherState weather;
+        private final Long time;
+        private final int priority;
+        private final int minX, minY, minZ, maxX, maxY, maxZ;
+
+        IndexedRegion(ProtectedRegion region, WeatherState weather, Long time) {
+            this.region = region;
+            this.parent = region.getParent();
+            this.weather = weather;
+            this.time = time;
+            this.priority = region.getPriority();
+            this.minX = region.getMinimumPoint().getBlockX();
+            this.minY = region.getMinimumPoint().getBlockY();
+            this.minZ = region.getMinimumPoint().getBlockZ();
+            this.maxX = region.getMaximumPoint().getBlockX();
+            this.maxY = region.getMaximumPoint().getBlockY();
+            this.maxZ = region.getMaximumPoint().getBlockZ();
+        }
+
+        boolean intersects(int x1, int z1, int x2, int z2) {
+            return minX <= x2 && maxX >= x1 && minZ <= z2 && maxZ >= z1;
+        }
+
+        boolean covers(int x1, int z1, int x2, int z2) {
+            return region.getType() == RegionType.CUBOID && minY <= 0 && maxY >= 255
+                    && minX <= x1 && maxX >= x2 && minZ <= z1 && maxZ >= z2;
+        }
+
+        boolean isChanged(ProtectedRegion current) {
+            if (current != region) return true;
+            return parent != current.getParent() || priority != current.getPriority()
+                    || minX != current.getMinimumPoint().getBlockX() || minY != current.getMinimumPoint().getBlockY()
+                    || minZ != current.getMinimumPoint().getBlockZ() || maxX != current.getMaximumPoint().getBlockX()
+                    || maxY != current.getMaximumPoint().getBlockY() || maxZ != current.getMaximumPoint().getBlockZ();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.environment;
+
+import me.fromgate.weatherman.localweather.WeatherState;
+
+import java.util.Objects;
+
+/**
+ * Effective region weather and time rules at some point
+ */
+public final class RegionRules {
+
+    public static final RegionRules NONE = new RegionRules(WeatherState.UNSET, null);
+
+    private final WeatherState weather;
+    private final Long time;
+
+    RegionRules(WeatherState weather, Long time) {
+        this.weather = weather;
+        this.time = time;
+    }
+
+    static RegionRules of(WeatherState weather, Long time) {
+        if (weather == WeatherState.UNSET && time == null) return NONE;
+        return new RegionRules(weather, time);
+    }
+
+    public WeatherState getWeather() {
+        return weather;
+    }
+
+    public Long getTime() {
+        return time;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RegionRules)) return false;
+        RegionRules rules = (RegionRules) o;
+        return weather == rules.weather && Objects.equals(time, rules.time);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(weather, time);
+    }
+}
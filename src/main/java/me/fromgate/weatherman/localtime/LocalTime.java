@@ -23,11 +23,13 @@
 package me.fromgate.weatherman.localtime;
 
 import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.environment.EnvironmentResolver;
+import me.fromgate.weatherman.environment.EnvironmentWatcher;
+import me.fromgate.weatherman.environment.RegionIndex;
 import me.fromgate.weatherman.playerconfig.PlayerConfig;
 import me.fromgate.weatherman.util.BiomeTools;
 import me.fromgate.weatherman.util.Cfg;
 import me.fromgate.weatherman.util.Time;
-import me.fromgate.weatherman.util.WMWorldEdit;
 import me.fromgate.weatherman.util.lang.M;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -39,52 +41,40 @@ import org.bukkit.entity.Player;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class LocalTime {
 
     private static Map<String, Long> regions;
-    private static Map<String, Long> biomes;
+    private static Map<Biome, Long> biomes;
+    // Biomes unknown for this server version, kept to be saved back
+    private static Map<String, Long> unknownBiomes;
     private static Map<String, Long> worlds;
 
     public static void init() {
         regions = new HashMap<>(); // true  - дождь
-        biomes = new HashMap<>();
+        biomes = new EnumMap<>(Biome.class);
+        unknownBiomes = new HashMap<>();
         worlds = new HashMap<>();
         loadLocalTime();
     }
 
 
     public static Long getTime(Player player) {
-        Long time = PlayerConfig.getPersonalTime(player);
-        if (time == null) {
-            time = getRegionTime(player);
-        }
-        if (time == null) {
-            time = getBiomeTime(player.getLocation().getBlock().getBiome());
-        }
-        return time == null ? getWorldTime(player.getWorld()) : time;
+        return EnvironmentResolver.resolve(player).getTime();
     }
 
     public static Long getTime(Player player, long worldTime) {
-        Long time = PlayerConfig.getPersonalTime(player);
-        if (time == null) {
-            time = getRegionTime(player);
-        }
-        if (time == null) {
-            time = getBiomeTime(player.getLocation().getBlock().getBiome());
-        }
+        Long time = getTime(player);
         return time == null ? worldTime : time;
     }
 
     public static Long getTime(Location loc) {
-        Long time = getRegionTime(loc);
-        if (time == null) {
-            time = getBiomeTime(loc.getBlock().getBiome());
-        }
-        return time == null ? getWorldTime(loc.getWorld()) : time;
+        return EnvironmentResolver.resolve(null, loc).getTime();
     }
 
     public static void sendTime(Player player, Long time) {
@@ -121,67 +111,71 @@ public class LocalTime {
     /*
      * Biome Weather
      */
-    public static void setBiomeTime(Biome biome, Long time) {
-        setBiomeTime(BiomeTools.biomeToString(biome), time);
+    public static void setBiomeTime(String biome, Long time) {
+        Biome b = BiomeTools.biomeByName(biome);
+        if (b != null) setBiomeTime(b, time);
     }
 
-    public static void setBiomeTime(String biome, Long time) {
+    public static void setBiomeTime(Biome biome, Long time) {
+        if (biome == null) return;
         biomes.put(biome, time);
         saveLocalTime();
+        EnvironmentWatcher.invalidate();
     }
 
-    public static void clearBiomeTime(Biome biome) {
-        clearBiomeTime(BiomeTools.biomeToString(biome));
+    public static void clearBiomeTime(String biome) {
+        Biome b = BiomeTools.biomeByName(biome);
+        if (b != null) clearBiomeTime(b);
     }
 
-    public static void clearBiomeTime(String biome) {
-        if (biomes.containsKey(biome)) {
-            biomes.remove(biome);
-        }
+    public static void clearBiomeTime(Biome biome) {
+        biomes.remove(biome);
         saveLocalTime();
+        EnvironmentWatcher.invalidate();
+    }
+
+    public static boolean hasBiomeRules() {
+        return !biomes.isEmpty();
     }
 
     public static Long getBiomeTime(Biome biome) {
         if (biome == null) return null;
-        return getBiomeTime(BiomeTools.biomeToString(biome));
+        return biomes.get(biome);
     }
 
     public static Long getBiomeTime(String biome) {
-        if (biomes.containsKey(biome)) {
-            return biomes.get(biome);
-        }
-        return null;
+        return getBiomeTime(BiomeTools.biomeByName(biome));
     }
 
     /*
      * Regions
      */
+    public static boolean hasRegionRules() {
+        return !regions.isEmpty();
+    }
+
+    public static Set<String> getRegionNames() {
+        return regions.keySet();
+    }
+
     public static Long getRegionTime(Player p) {
         return getRegionTime(p.getLocation());
     }
 
 
     public static Long getRegionTime(Location loc) {
-        List<String> rgList = WMWorldEdit.getRegions(loc);
-        for (String rgStr : rgList) {
-            if (regions.containsKey(rgStr)) {
-                return regions.get(rgStr);
-            }
-        }
-        return null;
+        return RegionIndex.getRules(loc).getTime();
     }
 
 
     public static Long getRegionTime(String region) {
-        if (regions.containsKey(region)) {
-            regions.get(region);
-        }
-        return null;
+        return regions.get(region);
     }
 
     public static void setRegionTime(String region, Long time) {
         regions.put(region, time);
         saveLocalTime();
+        EnvironmentWatcher.invalidate();
     }
 
     public static void clearRegionTime(String region) {
@@ -189,6 +183,7 @@ public class LocalTime {
             regions.remove(region);
         }
         saveLocalTime();
+        EnvironmentWatcher.invalidate();
     }
 
     public static void clearWorldTime(String worldName) {
@@ -196,6 +191,7 @@ public class LocalTime {
             worlds.remove(worldName);
         }
         saveLocalTime();
+        EnvironmentWatcher.invalidate();
     }
 
     /*
@@ -224,6 +220,7 @@ public class LocalTime {
             worlds.put(worldName, time);
         }
         saveLocalTime();
+        EnvironmentWatcher.invalidate();
     }
 
     private static boolean isTimeChanged(Player player, Long newTime) {
@@ -237,8 +234,11 @@ public class LocalTime {
             for (String wname : worlds.keySet()) {
                 cfg.set("worlds." + wname, worlds.get(wname));
             }
-            for (String b : biomes.keySet()) {
-                cfg.set("biomes." + b, biomes.get(b));
+            for (Biome b : biomes.keySet()) {
+                cfg.set("biomes." + BiomeTools.biomeToString(b), biomes.get(b));
+            }
+            for (String biomeName : unknownBiomes.keySet()) {
+                cfg.set("biomes." + biomeName, unknownBiomes.get(biomeName));
             }
             for (String r : regions.keySet()) {
                 cfg.set("regions." + r, regions.get(r));
@@ -256,6 +256,7 @@ public class LocalTime {
                 cfg.load(f);
                 worlds.clear();
                 biomes.clear();
+                unknownBiomes.clear();
                 regions.clear();
                 for (String key : cfg.getKeys(true)) {
                     if (key.contains(".")) {
@@ -264,7 +265,15 @@ public class LocalTime {
                             String type = kln[0];
                             String keyfield = kln[1];
                             if (type.equalsIgnoreCase("worlds")) worlds.put(keyfield, cfg.getLong(key));
-                            if (type.equalsIgnoreCase("biomes")) biomes.put(keyfield, cfg.getLong(key));
+                            if (type.equalsIgnoreCase("biomes")) {
+                                Biome biome = BiomeTools.biomeByName(keyfield);
+                                if (biome != null) {
+                                    biomes.put(biome, cfg.getLong(key));
+                                } else {
+                                    M.logMessage("Unknown biome in localtime.yml: " + keyfield);
+                                    unknownBiomes.put(keyfield, cfg.getLong(key));
+                                }
+                            }
                             if (type.equalsIgnoreCase("regions")) regions.put(keyfield, cfg.getLong(key));
                         }
                     }
@@ -294,8 +303,8 @@ public class LocalTime {
     public static void printBiomeList(CommandSender sender, int page) {
         if (biomes.size() > 0) {
             List<String> blst = new ArrayList<>();
-            for (String b : biomes.keySet()) {
-                blst.add("&6" + b + "&e : " + Time.timeToString(biomes.get(b)));
+            for (Biome b : biomes.keySet()) {
+                blst.add("&6" + BiomeTools.biomeToString(b) + "&e : " + Time.timeToString(biomes.get(b)));
             }
             M.printPage(sender, blst, M.TM_BIOMELIST, page, sender instanceof Player ? 9 : 1000);
         } else {
@@ -349,7 +358,11 @@ public class LocalTime {
 
     public static void updatePlayerTime(Player player) {
         if (!Cfg.localTimeEnable) return;
-        Long time = getTime(player);
+        updatePlayerTime(player, getTime(player));
+    }
+
+    public static void updatePlayerTime(Player player, Long time) {
+        if (!Cfg.localTimeEnable) return;
         if (isTimeChanged(player, time)) {
             sendTime(player, time);
         }
@@ -24,10 +24,12 @@
 package me.fromgate.weatherman.localweather;
 
 import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.environment.EnvironmentResolver;
+import me.fromgate.weatherman.environment.EnvironmentWatcher;
+import me.fromgate.weatherman.environment.RegionIndex;
 import me.fromgate.weatherman.playerconfig.PlayerConfig;
 import me.fromgate.weatherman.util.BiomeTools;
 import me.fromgate.weatherman.util.Cfg;
-import me.fromgate.weatherman.util.WMWorldEdit;
 import me.fromgate.weatherman.util.lang.M;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -40,69 +42,38 @@ import org.bukkit.entity.Player;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class LocalWeather {
     private static Map<String, Boolean> regions; // true  - дождь
-    private static Map<String, Boolean> biomes;
+    private static Map<Biome, Boolean> biomes;
+    // Biomes unknown for this server version, kept to be saved back
+    private static Map<String, Boolean> unknownBiomes;
     private static Map<String, Boolean> worlds;
 
 
     public static void init() {
         regions = new HashMap<>(); // true  - дождь
-        biomes = new HashMap<>();
+        biomes = new EnumMap<>(Biome.class);
+        unknownBiomes = new HashMap<>();
         worlds = new HashMap<>();
         loadLocalWeather();
     }
 
     public static boolean getRain(Player p) {
-        WeatherState r = PlayerConfig.getPersonalWeather(p);
-        if (r == WeatherState.UNSET) {
-            r = getRegionRain(p);
-        }
-        if (r == WeatherState.UNSET) {
-            r = getBiomeRain(p.getLocation().getBlock().getBiome());
-        }
-        if (r == WeatherState.CLEAR) {
-            return false;
-        }
-        if (r == WeatherState.RAIN) {
-            return true;
-        }
-        return getWorldRain(p.getWorld());
+        return EnvironmentResolver.resolve(p).isRain();
     }
 
     public static boolean getRain(Player p, boolean world_to_rain) {
-        WeatherState r = PlayerConfig.getPersonalWeather(p);
-        if (r == WeatherState.UNSET) {
-            r = getRegionRain(p);
-        }
-        if (r == WeatherState.UNSET) {
-            r = getBiomeRain(p.getLocation().getBlock().getBiome());
-        }
-        if (r == WeatherState.CLEAR) {
-            return false;
-        }
-        if (r == WeatherState.RAIN) {
-            return true;
-        }
-        return world_to_rain;
+        return EnvironmentResolver.resolve(p, p.getLocation(), world_to_rain).isRain();
     }
 
     public static boolean getRain(Location loc) {
-        WeatherState r = getRegionRain(loc);
-        if (r == WeatherState.UNSET) {
-            r = getBiomeRain(loc.getBlock().getBiome());
-        }
-        if (r == WeatherState.CLEAR) {
-            return false;
-        }
-        if (r == WeatherState.RAIN) {
-            return true;
-        }
-        return getWorldRain(loc.getWorld());
+        return EnvironmentResolver.resolve(null, loc).isRain();
     }
 
     public static void sendWeather(Player player, boolean rain) {
@@ -128,39 +99,56 @@ public class LocalWeather {
     /*
      * Biome Weather
      */
-    public static void setBiomeRain(Biome biome, boolean rain) {
-        setBiomeRain(BiomeTools.biomeToString(biome), rain);
+    public static void setBiomeRain(String biome, boolean rain) {
+        Biome b = BiomeTools.biomeByName(biome);
+        if (b != null) setBiomeRain(b, rain);
     }
 
-    public static void setBiomeRain(String biome, boolean rain) {
+    public static void setBiomeRain(Biome biome, boolean rain) {
+        if (biome == null) return;
         biomes.put(biome, rain);
         saveLocalWeather();
+        EnvironmentWatcher.invalidate();
     }
 
-    public static void clearBiomeRain(Biome biome) {
-        clearBiomeRain(BiomeTools.biomeToString(biome));
+    public static void clearBiomeRain(String biome) {
+        Biome b = BiomeTools.biomeByName(biome);
+        if (b != null) clearBiomeRain(b);
     }
 
-    public static void clearBiomeRain(String biome) {
-        if (biomes.containsKey(biome)) biomes.remove(biome);
+    public static void clearBiomeRain(Biome biome) {
+        biomes.remove(biome);
         saveLocalWeather();
+        EnvironmentWatcher.invalidate();
+    }
+
+    public static boolean hasBiomeRules() {
+        return !biomes.isEmpty();
     }
 
     //0 - clear, 1 - rain, -1 - error/default
     public static WeatherState getBiomeRain(Biome biome) {
         if (biome == null) return WeatherState.UNSET;
-        return getBiomeRain(BiomeTools.biomeToString(biome));
+        Boolean rain = biomes.get(biome);
+        if (rain == null) return WeatherState.UNSET;
+        return rain ? WeatherState.RAIN : WeatherState.CLEAR;
     }
 
     public static WeatherState getBiomeRain(String biome) {
-        if (!biomes.containsKey(biome)) return WeatherState.UNSET;
-        if (biomes.get(biome)) return WeatherState.RAIN;
-        return WeatherState.CLEAR;
+        return getBiomeRain(BiomeTools.biomeByName(biome));
     }
 
     /*
      * Regions
      */
+    public static boolean hasRegionRules() {
+        return !regions.isEmpty();
+    }
+
+    public static Set<String> getRegionNames() {
+        return regions.keySet();
+    }
+
     //0 - clear, 1 - rain, -1 - error/default
     public static WeatherState getRegionRain(Player p) {
         return getRegionRain(p.getLocation());
@@ -168,13 +156,7 @@ public class LocalWeather {
 
 
     public static WeatherState getRegionRain(Location loc) {
-        List<String> rgList = WMWorldEdit.getRegions(loc);
-        for (String rgStr : rgList) {
-            if (regions.containsKey(rgStr)) {
-                return (regions.get(rgStr) ? WeatherState.RAIN : WeatherState.CLEAR);
-            }
-        }
-        return WeatherState.UNSET;
+        return RegionIndex.getRules(loc).getWeather();
     }
 
 
@@ -187,11 +169,13 @@ public class LocalWeather {
     public static void setRegionRain(String region, boolean rain) {
         regions.put(region, rain);
         saveLocalWeather();
+        EnvironmentWatcher.invalidate();
     }
 
     public static void clearRegionRain(String region) {
         if (regions.containsKey(region)) regions.remove(region);
         saveLocalWeather();
+        EnvironmentWatcher.invalidate();
     }
 
     /*
@@ -219,6 +203,7 @@ public class LocalWeather {
     public static void setWorldRain(String world, boolean rain) {
         worlds.put(world, rain);
         saveLocalWeather();
+        EnvironmentWatcher.invalidate();
     }
 
     public static void clearWorldRain(World world) {
@@ -229,6 +214,7 @@ public class LocalWeather {
     public static void clearWorldRain(String world) {
         if (worlds.containsKey(world)) worlds.remove(world);
         saveLocalWeather();
+        EnvironmentWatcher.invalidate();
     }
 
     public static void updatePlayersRain(final World w, int delay, boolean toWeather) {
@@ -252,7 +238,11 @@ public class LocalWeather {
 
     public static void updatePlayerRain(Player player) {
         if (!Cfg.localWeatherEnable) return;
-        boolean newRain = getRain(player);
+        updatePlayerRain(player, getRain(player));
+    }
+
+    public static void updatePlayerRain(Player player, boolean newRain) {
+        if (!Cfg.localWeatherEnable) return;
         if (PlayerConfig.isWeatherChanged(player, newRain)) {
             sendWeather(player, newRain);
         }
@@ -271,9 +261,11 @@ public class LocalWeather {
                     cfg.set("worlds." + worldName, worlds.get(worldName));
             }
             if (biomes.size() > 0) {
-                for (String biomeName : biomes.keySet())
-                    cfg.set("biomes." + biomeName, biomes.get(biomeName));
+                for (Biome biome : biomes.keySet())
+                    cfg.set("biomes." + BiomeTools.biomeToString(biome), biomes.get(biome));
             }
+            for (String biomeName : unknownBiomes.keySet())
+                cfg.set("biomes." + biomeName, unknownBiomes.get(biomeName));
             if (regions.size() > 0) {
                 for (String regionName : regions.keySet())
                     cfg.set("regions." + regionName, regions.get(regionName));
@@ -291,6 +283,7 @@ public class LocalWeather {
                 cfg.load(file);
                 worlds.clear();
                 biomes.clear();
+                unknownBiomes.clear();
                 regions.clear();
                 for (String key : cfg.getKeys(true)) {
                     if (key.contains(".")) {
@@ -303,7 +296,13 @@ public class LocalWeather {
                                     worlds.put(keyfield, cfg.getBoolean(key));
                                     break;
                                 case "biomes":
-                                    biomes.put(keyfield, cfg.getBoolean(key));
+                                    Biome biome = BiomeTools.biomeByName(keyfield);
+                                    if (biome != null) {
+                                        biomes.put(biome, cfg.getBoolean(key));
+                                    } else {
+                                        M.logMessage("Unknown biome in localweather.yml: " + keyfield);
+                                        unknownBiomes.put(keyfield, cfg.getBoolean(key));
+                                    }
                                     break;
                                 case "regions":
                                     regions.put(keyfield, cfg.getBoolean(key));
@@ -337,8 +336,8 @@ public class LocalWeather {
     public static void printBiomeList(CommandSender sender, int page) {
         if (biomes.size() > 0) {
             List<String> blst = new ArrayList<>();
-            for (String b : biomes.keySet()) {
-                blst.add("&6" + b + "&e : " + ((biomes.get(b)) ? M.RAIN : M.CLEAR));
+            for (Biome b : biomes.keySet()) {
+                blst.add("&6" + BiomeTools.biomeToString(b) + "&e : " + ((biomes.get(b)) ? M.RAIN : M.CLEAR));
             }
             M.printPage(sender, blst, M.WTH_BIOMELIST, page, sender instanceof Player ? 9 : 1000);
         } else {
@@ -0,0 +1,204 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.playerconfig;
+
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.localweather.WeatherState;
+import org.bukkit.block.Biome;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Player data stored in single file with fixed-size records.
+ * Index (player name -> record number) is built when file is opened,
+ * so loading of player data is a single read.
+ * <p>
+ * Record: used flag, name, brush radius, brush biome, brush tree,
+ * personal weather, personal time
+ */
+class BinaryPlayerDataStore implements PlayerDataStore {
+
+    private static final int MAGIC = 0x574D5044; // WMPD
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 128;
+    private static final int NAME_SIZE = 32;
+    private static final int BIOME_SIZE = 32;
+    private static final int TREE_SIZE = 46;
+
+    private final FileChannel channel;
+    private final Map<String, Integer> index = new HashMap<>();
+    private int records;
+
+    BinaryPlayerDataStore(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                channel.close();
+                throw new IOException("Wrong player data file format: " + file.getName());
+            }
+        }
+        readIndex();
+    }
+
+    private void readIndex() throws IOException {
+        records = (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        for (int start = 0; start < records; start += 256) {
+            buffer.clear();
+            channel.read(buffer, position(start));
+            buffer.flip();
+            for (int i = start; i < records && buffer.remaining() >= RECORD_SIZE; i++) {
+                int recordStart = buffer.position();
+                if (buffer.get() != 0) {
+                    index.put(getString(buffer).toLowerCase(), i);
+                }
+                buffer.position(recordStart + RECORD_SIZE);
+            }
+        }
+    }
+
+    @Override
+    public synchronized PlayerData load(String name) {
+        Integer record = index.get(name.toLowerCase());
+        if (record == null) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        try {
+            channel.read(buffer, position(record));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        buffer.flip();
+        buffer.get();
+        skipString(buffer, NAME_SIZE);
+        PlayerData data = new PlayerData();
+        data.setBallRadius(buffer.getInt());
+        data.setBallBiome(getString(buffer));
+        skipString(buffer, BIOME_SIZE);
+        String tree = getString(buffer);
+        if (!tree.isEmpty()) data.setBallTree(tree);
+        skipString(buffer, TREE_SIZE);
+        WeatherState[] states = WeatherState.values();
+        int weather = buffer.get();
+        data.setPersonalWeather(weather >= 0 && weather < states.length ? states[weather] : WeatherState.UNSET);
+        boolean hasTime = buffer.get() != 0;
+        long time = buffer.getLong();
+        data.setPersonalTime(hasTime ? time : null);
+        return data;
+    }
+
+    @Override
+    public synchronized void save(String name, PlayerData data) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.put((byte) 1);
+        try {
+            putString(buffer, name, NAME_SIZE);
+            buffer.putInt(data.getBallRadius());
+            Biome biome = data.getBallBiome();
+            putString(buffer, biome == null ? "" : biome.name(), BIOME_SIZE);
+            putString(buffer, data.getBallTree(), TREE_SIZE);
+        } catch (IllegalArgumentException e) {
+            // Previous record is kept
+            WeatherMan.getPlugin().getLogger().warning("Player data of " + name + " is not saved. " + e.getMessage());
+            return;
+        }
+        buffer.put((byte) data.getPersonalWeather().ordinal());
+        Long time = data.getPersonalTime();
+        buffer.put((byte) (time == null ? 0 : 1));
+        buffer.putLong(time == null ? 0 : time);
+        buffer.position(RECORD_SIZE);
+        buffer.flip();
+        String key = name.toLowerCase();
+        Integer record = index.get(key);
+        if (record == null) {
+            record = records++;
+            index.put(key, record);
+        }
+        try {
+            channel.write(buffer, position(record));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long position(int record) {
+        return HEADER_SIZE + (long) record * RECORD_SIZE;
+    }
+
+    /**
+     * String is stored as length byte and fixed-size field.
+     *
+     * @throws IllegalArgumentException if string does not fit the field
+     */
+    private static void putString(ByteBuffer buffer, String str, int size) {
+        byte[] bytes = str == null ? new byte[0] : str.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > size)
+            throw new IllegalArgumentException("Value is longer than " + size + " bytes: " + str);
+        int start = buffer.position();
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+        buffer.position(start + 1 + size);
+    }
+
+    /**
+     * Read string, buffer position is not changed
+     */
+    private static String getString(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.get() & 0xFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        buffer.position(start);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer, int size) {
+        buffer.position(buffer.position() + 1 + size);
+    }
+}
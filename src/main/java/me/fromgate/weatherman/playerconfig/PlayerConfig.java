@@ -26,33 +26,40 @@ import me.fromgate.weatherman.WeatherMan;
 import me.fromgate.weatherman.localweather.WeatherState;
 import me.fromgate.weatherman.util.BiomeBall;
 import me.fromgate.weatherman.util.Cfg;
+import org.bukkit.Bukkit;
 import org.bukkit.block.Biome;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class PlayerConfig {
 
     private static WeatherMan plg;
     private static File folder;
+    private static PlayerDataStore store;
 
     public static void init(WeatherMan plugin) {
         plg = plugin;
         folder = new File(plugin.getDataFolder() + File.separator + "players" + File.separator);
-        folder.mkdirs();
+        store = createStore();
+        PlayerDataWriter.start(store);
+        long interval = Math.max(1, Cfg.playerSaveInterval) * 20L;
+        Bukkit.getScheduler().runTaskTimer(plugin, PlayerConfig::saveDirtyPlayers, interval, interval);
     }
 
-    private static Map<String, PlayerData> players = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // Concurrent map: checked in async pre-login event
+    private static Map<String, PlayerData> players = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private static Map<String, PlayerData> prefetched = new ConcurrentHashMap<>();
 
     // Personal configuration
     // Tree wand
     public static void setTree(Player player, String treeStr) {
         getPlayerData(player).setBallTree(treeStr);
-        savePlayerData(player);
     }
 
     public static String getTree(Player player) {
@@ -72,7 +79,6 @@ public class PlayerConfig {
         PlayerData data = getPlayerData(player);
         data.setBallBiome(biomeStr);
         data.setBallRadius(radius);
-        savePlayerData(player);
     }
 
 
@@ -81,7 +87,6 @@ public class PlayerConfig {
         data.setStateInfoMode(false);
         data.setStateWand(false);
         data.setStateLastWeather(false);
-        savePlayerData(player);
     }
 
 	/*
@@ -94,7 +99,6 @@ public class PlayerConfig {
 
     public static void setLastWeather(Player player, boolean rain) {
         getPlayerData(player).setStateLastWeather(rain);
-        savePlayerData(player);
     }
 
     public static boolean isWeatherChanged(Player player, boolean newRain) {
@@ -112,12 +116,10 @@ public class PlayerConfig {
 
     public static void setPersonalWeather(Player player, boolean rain) {
         getPlayerData(player).setPersonalWeather(rain);
-        savePlayerData(player);
     }
 
     public static void removePersonalWeather(Player player) {
         getPlayerData(player).setPersonalWeather(WeatherState.UNSET);
-        savePlayerData(player);
     }
 
     /*
@@ -133,17 +135,14 @@ public class PlayerConfig {
 
     public static void setPersonalTime(String player, Long time) {
         getPlayerData(player).setPersonalTime(time);
-        savePlayerData(player);
     }
 
     public static void setPersonalTime(String player, String time) {
         getPlayerData(player).setPersonalTime(time);
-        savePlayerData(player);
     }
 
     public static void removePersonalTime(String player) {
         getPlayerData(player).setPersonalTime((Long) null);
-        savePlayerData(player);
     }
 
 
@@ -156,13 +155,11 @@ public class PlayerConfig {
 
     public static void setWalkInfoMode(Player player, boolean mode) {
         getPlayerData(player).setStateInfoMode(mode);
-        savePlayerData(player);
     }
 
     public static void toggleWalkInfoMode(Player player) {
         PlayerData data = getPlayerData(player);
         data.setStateInfoMode(!data.isStateInfoMode());
-        savePlayerData(player);
     }
 
     /*
@@ -179,7 +176,6 @@ public class PlayerConfig {
     public static void toggleWandMode(Player player) {
         PlayerData data = getPlayerData(player);
         data.setStateWand(!data.isStateWand());
-        savePlayerData(player);
     }
 
 
@@ -188,33 +184,50 @@ public class PlayerConfig {
     }
 
     public static PlayerData getPlayerData(String name) {
-        if (players.containsKey(name)) {
-            return players.get(name);
+        PlayerData data = players.get(name);
+        if (data == null) {
+            data = prefetched.remove(name.toLowerCase());
+            if (data == null) data = loadPlayerData(name);
+            players.put(name, data);
         }
+        return data;
+    }
+
+    /**
+     * Load player data in pre-login (async) event, so it will be ready when player joins
+     */
+    public static void prefetchPlayerData(String name) {
+        if (players.containsKey(name)) return;
+        prefetched.put(name.toLowerCase(), loadPlayerData(name));
+    }
+
+    /**
+     * Remove prefetched data of player that was not allowed to join
+     */
+    public static void discardPrefetched(String name) {
+        prefetched.remove(name.toLowerCase());
+    }
+
+    private static PlayerData loadPlayerData(String name) {
         PlayerData data = new PlayerData();
-        YamlConfiguration cfg = new YamlConfiguration();
-        File file = new File(folder, name + ".yml");
-        if (file.exists()) {
-            try {
-                cfg.load(file);
-                if (Cfg.personalBrushClear) {
-                    data.setBallRadius(cfg.getInt("brush.radius", data.getBallRadius()));
-                    data.setBallBiome(cfg.getString("brush.biome"));
-                    data.setBallTree(cfg.getString("brush.tree", data.getBallTree()));
-                }
-
-                if (Cfg.personalWeatherClear) {
-                    data.setPersonalWeather(cfg.getString("personal.weather"));
-                }
-
-                if (Cfg.personalTimeClear) {
-                    data.setPersonalTime(cfg.getString("personal.time", data.getPersonalTimeStr()));
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+        PlayerData saved = PlayerDataWriter.getPending(name);
+        if (saved == null) saved = store.load(name);
+        if (saved != null) {
+            if (Cfg.personalBrushClear) {
+                data.setBallRadius(saved.getBallRadius());
+                data.setBallBiome(saved.getBallBiome());
+                data.setBallTree(saved.getBallTree());
+            }
+
+            if (Cfg.personalWeatherClear) {
+                data.setPersonalWeather(saved.getPersonalWeather());
+            }
+
+            if (Cfg.personalTimeClear) {
+                data.setPersonalTime(saved.getPersonalTime());
             }
         }
-        players.put(name, data);
+        data.setDirty(false);
         return data;
     }
 
@@ -222,20 +235,80 @@ public class PlayerConfig {
         savePlayerData(player.getName());
     }
 
+    /**
+     * Save player data (if it was changed) in background
+     */
     public static void savePlayerData(String name) {
-        PlayerData data = players.containsKey(name) ? data = players.get(name) : null;
-        if (data == null) return;
-        YamlConfiguration cfg = new YamlConfiguration();
-        cfg.set("brush.radius", data.getBallRadius());
-        cfg.set("brush.biome", data.getBallBiome().name());
-        cfg.set("brush.tree", data.getBallTree());
-        cfg.set("personal.weather", data.personalWeather.name());
-        cfg.set("personal.time", data.getPersonalTimeStr());
-        try {
-            cfg.save(new File(folder, name + ".yml"));
-        } catch (IOException e) {
-            e.printStackTrace();
+        PlayerData data = players.get(name);
+        if (data == null || !data.isDirty()) return;
+        Map<String, PlayerData> batch = new HashMap<>();
+        batch.put(name, data.copy());
+        data.setDirty(false);
+        PlayerDataWriter.write(batch);
+    }
+
+    /**
+     * Save all changed player data in background
+     */
+    public static void saveDirtyPlayers() {
+        Map<String, PlayerData> batch = new HashMap<>();
+        players.forEach((name, data) -> {
+            if (data.isDirty()) {
+                batch.put(name, data.copy());
+                data.setDirty(false);
+            }
+        });
+        PlayerDataWriter.write(batch);
+    }
+
+    /**
+     * Save all changed player data and wait until all data is written
+     */
+    public static void shutdown() {
+        saveDirtyPlayers();
+        PlayerDataWriter.stop();
+        store.close();
+    }
+
+    private static PlayerDataStore createStore() {
+        if (Cfg.playerStorage.equalsIgnoreCase("binary")) {
+            try {
+                BinaryPlayerDataStore binaryStore = new BinaryPlayerDataStore(new File(plg.getDataFolder(), "players.dat"));
+                migrateYamlFiles(binaryStore);
+                return binaryStore;
+            } catch (IOException e) {
+                plg.getLogger().warning("Failed to open players.dat, player data will be stored in yml-files");
+                e.printStackTrace();
+            }
         }
+        return new YamlPlayerDataStore(folder);
+    }
+
+    /**
+     * Move player data from yml-files to binary store. Every yml-file is deleted after its data
+     * is stored (so data is not imported again if folder could not be renamed), files of players
+     * that already have binary record are not imported. Folder with yml-files is renamed after migration.
+     */
+    private static void migrateYamlFiles(PlayerDataStore binaryStore) {
+        File[] files = folder.listFiles((dir, fileName) -> fileName.toLowerCase().endsWith(".yml"));
+        if (files == null) return;
+        int moved = 0;
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - 4);
+            if (binaryStore.load(name) == null) {
+                PlayerData data = YamlPlayerDataStore.load(file);
+                if (data == null) continue;
+                binaryStore.save(name, data);
+                if (binaryStore.load(name) == null) continue;
+                moved++;
+            }
+            if (!file.delete()) file.deleteOnExit();
+        }
+        if (moved > 0) plg.getLogger().info("Player data of " + moved + " player(s) moved to players.dat");
+        File migrated = new File(plg.getDataFolder(), "players.migrated");
+        if (!migrated.exists() && folder.renameTo(migrated)) return;
+        if (files.length > 0)
+            plg.getLogger().warning("Failed to rename " + folder.getName() + " folder. Please remove it manually.");
     }
 
     public static String getPersonalTimeStr(Player player) {
@@ -244,6 +317,8 @@ public class PlayerConfig {
 
 
     public static void quitPlayer(Player player) {
+        savePlayerData(player);
+        prefetched.remove(player.getName().toLowerCase());
         if (players.containsKey(player.getName())) {
             players.remove(player.getName());
         }
@@ -30,10 +30,12 @@ import org.bukkit.block.Biome;
 
 public class PlayerData {
 
+    // Session state, not saved
     boolean stateInfoMode;
     boolean stateWand;
     boolean stateLastWeather;
 
+    boolean dirty;
 
     // Save
     String ballTree;
@@ -55,6 +57,31 @@ public class PlayerData {
         ballRadius = Cfg.defaultRadius;
         personalWeather = WeatherState.UNSET;
         personalTime = null;
+        dirty = false;
+    }
+
+    /**
+     * Data was changed and must be saved
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Copy of saved fields
+     */
+    PlayerData copy() {
+        PlayerData data = new PlayerData();
+        data.ballTree = ballTree;
+        data.ballBiome = ballBiome;
+        data.ballRadius = ballRadius;
+        data.personalWeather = personalWeather;
+        data.personalTime = personalTime;
+        return data;
     }
 
 
@@ -88,6 +115,7 @@ public class PlayerData {
 
     public void setBallTree(String ballTree) {
         this.ballTree = ballTree;
+        this.dirty = true;
     }
 
     public Biome getBallBiome() {
@@ -96,11 +124,13 @@ public class PlayerData {
 
     public void setBallBiome(Biome ballBiome) {
         this.ballBiome = ballBiome;
+        this.dirty = true;
     }
 
     public void setBallBiome(String biomeStr) {
         Biome biome = BiomeTools.biomeByName(biomeStr);
         this.ballBiome = biome == null ? Cfg.defaultBiome : biome;
+        this.dirty = true;
     }
 
 
@@ -110,6 +140,7 @@ public class PlayerData {
 
     public void setBallRadius(int ballRadius) {
         this.ballRadius = ballRadius;
+        this.dirty = true;
     }
 
     public WeatherState getPersonalWeather() {
@@ -118,6 +149,7 @@ public class PlayerData {
 
     public void setPersonalWeather(WeatherState personalWeather) {
         this.personalWeather = personalWeather;
+        this.dirty = true;
     }
 
     public void setPersonalWeather(String personalWeather) {
@@ -131,10 +163,12 @@ public class PlayerData {
 
     public void setPersonalTime(Long personalTime) {
         this.personalTime = personalTime;
+        this.dirty = true;
     }
 
     public void setPersonalTime(String timeStr) {
         personalTime = Time.parseTime(timeStr);
+        dirty = true;
     }
 
     public String getPersonalTimeStr() {
@@ -0,0 +1,93 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.playerconfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes player data to store in background thread.
+ * Data is written in the same order it was submitted.
+ */
+class PlayerDataWriter {
+
+    private static ExecutorService executor = null;
+    private static PlayerDataStore store = null;
+    private static Map<String, PlayerData> pending = new ConcurrentHashMap<>();
+
+    static void start(PlayerDataStore dataStore) {
+        store = dataStore;
+        if (executor != null) return;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "WeatherMan player data writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submit data for writing
+     *
+     * @param batch - player names and copies of player data
+     */
+    static void write(Map<String, PlayerData> batch) {
+        if (batch.isEmpty()) return;
+        batch.forEach((name, data) -> pending.put(name.toLowerCase(), data));
+        if (executor == null) {
+            writeBatch(batch);
+        } else {
+            executor.execute(() -> writeBatch(batch));
+        }
+    }
+
+    /**
+     * Get data submitted for writing but not written yet
+     */
+    static PlayerData getPending(String name) {
+        return pending.get(name.toLowerCase());
+    }
+
+    /**
+     * Wait until all submitted data is written
+     */
+    static void stop() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        executor = null;
+    }
+
+    private static void writeBatch(Map<String, PlayerData> batch) {
+        batch.forEach((name, data) -> {
+            store.save(name, data);
+            pending.remove(name.toLowerCase(), data);
+        });
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.playerconfig;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Player data stored in separate yml-file per player
+ */
+class YamlPlayerDataStore implements PlayerDataStore {
+
+    private final File folder;
+
+    YamlPlayerDataStore(File folder) {
+        this.folder = folder;
+        folder.mkdirs();
+    }
+
+    @Override
+    public PlayerData load(String name) {
+        File file = new File(folder, name + ".yml");
+        if (!file.exists()) return null;
+        return load(file);
+    }
+
+    static PlayerData load(File file) {
+        YamlConfiguration cfg = new YamlConfiguration();
+        try {
+            cfg.load(file);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        PlayerData data = new PlayerData();
+        data.setBallRadius(cfg.getInt("brush.radius", data.getBallRadius()));
+        data.setBallBiome(cfg.getString("brush.biome"));
+        data.setBallTree(cfg.getString("brush.tree", data.getBallTree()));
+        data.setPersonalWeather(cfg.getString("personal.weather"));
+        data.setPersonalTime(cfg.getString("personal.time", data.getPersonalTimeStr()));
+        return data;
+    }
+
+    @Override
+    public void save(String name, PlayerData data) {
+        YamlConfiguration cfg = new YamlConfiguration();
+        cfg.set("brush.radius", data.getBallRadius());
+        cfg.set("brush.biome", data.getBallBiome().name());
+        cfg.set("brush.tree", data.getBallTree());
+        cfg.set("personal.weather", data.getPersonalWeather().name());
+        cfg.set("personal.time", data.getPersonalTimeStr());
+        try {
+            cfg.save(new File(folder, name + ".yml"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *
+ *  This file is part of WeatherMan.
+ *
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package me.fromgate.weatherman.queue;
+
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.util.Cfg;
+import me.fromgate.weatherman.util.NmsUtil;
+import me.fromgate.weatherman.util.WMWorldEdit;
+import me.fromgate.weatherman.util.lang.M;
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Biome snapshot of area (folder "snapshots").
+ * Area is processed region by region (512x512 blocks), so only one region is kept in memory while saving.
+ * Biomes are read from chunk snapshots and region files in scanner threads,
+ * every region is stored as palette of biome names and run-length encoded columns (deflate compressed).
+ * Snapshot is restored by usual biome queue.
+ */
+public class BiomeSnapshot {
+    private static final int MAGIC = 0x574D534E; // WMSN
+    private static final int VERSION = 2;
+    private static final int REGION_SHIFT = 9;
+
+    private final CommandSender sender;
+    private final String name;
+    private final String worldName;
+    private final int minX;
+    private final int minZ;
+    private final int maxX;
+    private final int maxZ;
+
+    // Saving: current region and WMChunk biome codes of its chunks (index (z & 31) << 5 | (x & 31), null - no data)
+    private World world;
+    private boolean readRegionFiles;
+    private int[] idToCode;
+    private int regionX;
+    private int regionZ;
+    private byte[][] codes;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private File tmpFile;
+    private DataOutputStream out;
+
+    // Loading: biome codes of chunks
+    private final Map<Long, byte[]> chunks = new LinkedHashMap<>();
+
+    private BiomeSnapshot(CommandSender sender, String name, String worldName, int minX, int minZ, int maxX, int maxZ) {
+        this.sender = sender;
+        this.name = name;
+        this.worldName = worldName;
+        this.minX = minX;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * Save biomes of WorldGuard region (or WorldEdit selection if region is empty)
+     */
+    public static boolean save(CommandSender sender, String name, String region) {
+        if (!isValidName(name)) return false;
+        Location loc1;
+        Location loc2;
+        if (region.isEmpty()) {
+            if (!(sender instanceof Player)) return M.MSG_CMDNEEDPLAYER.print(sender);
+            Player player = (Player) sender;
+            if (!WMWorldEdit.isWE()) return M.MSG_NEEDWORLDEDIT.print(player);
+            if (!WMWorldEdit.isSelected(player)) return M.MSG_SELECTREGION.print(player);
+            loc1 = WMWorldEdit.getSelectionMinPoint(player);
+            loc2 = WMWorldEdit.getSelectionMaxPoint(player);
+        } else {
+            if (!WMWorldEdit.isWG()) return M.WG_NOTFOUND.print(sender);
+            World world = null;
+            for (World w : Bukkit.getWorlds()) {
+                if (WMWorldEdit.isRegionExists(w, region)) {
+                    world = w;
+                    break;
+                }
+            }
+            if (world == null) return M.WG_UNKNOWNREGION.print(sender, region);
+            loc1 = WMWorldEdit.getMinPoint(world, region);
+            loc2 = WMWorldEdit.getMaxPoint(world, region);
+        }
+        if (loc1 == null || loc2 == null) return M.MSG_WRONGLOCATION.print(sender);
+        BiomeSnapshot snapshot = new BiomeSnapshot(sender, name, loc1.getWorld().getName(),
+                Math.min(loc1.getBlockX(), loc2.getBlockX()), Math.min(loc1.getBlockZ(), loc2.getBlockZ()),
+                Math.max(loc1.getBlockX(), loc2.getBlockX()), Math.max(loc1.getBlockZ(), loc2.getBlockZ()));
+        long chunkCount = snapshot.getChunkCount();
+        if (chunkCount > Cfg.snapshotMaxChunks) return M.MSG_SNAPSHOTTOOLARGE.print(sender, chunkCount, Cfg.snapshotMaxChunks);
+        snapshot.world = loc1.getWorld();
+        int[] biomeIds = NmsUtil.getBiomeIds();
+        // Without region file access unloaded chunks are loaded
+        snapshot.readRegionFiles = biomeIds != null && NmsUtil.isRegionAccessSupported();
+        if (snapshot.readRegionFiles) snapshot.idToCode = OfflineBiomeWriter.idToCode(biomeIds);
+        snapshot.regionX = snapshot.minX >> REGION_SHIFT;
+        snapshot.regionZ = snapshot.minZ >> REGION_SHIFT;
+        ScanPool.submit(snapshot::open);
+        return M.MSG_SNAPSHOTSAVESTARTED.print(sender, name, chunkCount);
+    }
+
+    /**
+     * Restore biomes saved in snapshot
+     */
+    public static boolean load(CommandSender sender, String name, boolean offline) {
+        if (!isValidName(name)) return false;
+        File file = getFile(name);
+        if (!file.exists()) return M.MSG_SNAPSHOTNOTFOUND.print(sender, name);
+        ScanPool.submit(() -> {
+            try {
+                BiomeSnapshot snapshot = read(sender, name, file);
+                Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), () -> snapshot.restore(offline));
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), () -> M.MSG_SNAPSHOTFAILED.print(sender, name));
+            }
+        });
+        return true;
+    }
+
+    private long getChunkCount() {
+        return (long) ((maxX >> 4) - (minX >> 4) + 1) * ((maxZ >> 4) - (minZ >> 4) + 1);
+    }
+
+    /**
+     * Create snapshot file and start capture of first region. Scanner thread.
+     */
+    private void open() {
+        try {
+            File file = getFile(name);
+            file.getParentFile().mkdirs();
+            // Unique temporary file: saves of the same snapshot do not write to one file
+            tmpFile = Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp").toFile();
+            out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmpFile))));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(worldName);
+            out.writeInt(minX);
+            out.writeInt(minZ);
+            out.writeInt(maxX);
+            out.writeInt(maxZ);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed();
+            return;
+        }
+        Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), this::captureRegion);
+    }
+
+    /**
+     * Read biomes of chunks of current region. Main thread.
+     */
+    private void captureRegion() {
+        codes = new byte[1024][];
+        List<Long> loaded = new ArrayList<>();
+        List<Long> unloaded = new ArrayList<>();
+        int chunkMinX = Math.max(minX, regionX << REGION_SHIFT) >> 4;
+        int chunkMaxX = Math.min(maxX, (regionX << REGION_SHIFT) + 511) >> 4;
+        int chunkMinZ = Math.max(minZ, regionZ << REGION_SHIFT) >> 4;
+        int chunkMaxZ = Math.min(maxZ, (regionZ << REGION_SHIFT) + 511) >> 4;
+        for (int cz = chunkMinZ; cz <= chunkMaxZ; cz++) {
+            for (int cx = chunkMinX; cx <= chunkMaxX; cx++) {
+                long key = WMChunk.key(cx, cz);
+                if (readRegionFiles && !world.isChunkLoaded(cx, cz)) unloaded.add(key);
+                else loaded.add(key);
+            }
+        }
+        remaining.set(loaded.size() + unloaded.size());
+        if (!unloaded.isEmpty()) ScanPool.submit(() -> readRegionFile(unloaded));
+        if (!loaded.isEmpty()) {
+            new BukkitRunnable() {
+                int next = 0;
+
+                @Override
+                public void run() {
+                    Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+                    int loads = Cfg.queueSyncLoadsPerTick;
+                    int skipped = 0;
+                    while (next < loaded.size() && snapshots.size() < Cfg.scanChunksPerTick) {
+                        long key = loaded.get(next);
+                        int chunkX = WMChunk.keyX(key);
+                        int chunkZ = WMChunk.keyZ(key);
+                        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                            if (loads-- <= 0) break;
+                            // Chunks that are not generated yet are stored without data
+                            if (!world.loadChunk(chunkX, chunkZ, false)) {
+                                next++;
+                                skipped++;
+                                continue;
+                            }
+                        }
+                        snapshots.put(key, world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, true, false));
+                        next++;
+                    }
+                    if (next >= loaded.size()) this.cancel();
+                    int count = snapshots.size() + skipped;
+                    if (count > 0) ScanPool.submit(() -> readSnapshots(snapshots, count));
+                }
+            }.runTaskTimer(WeatherMan.getPlugin(), 1, 1);
+        }
+    }
+
+    private void readSnapshots(Map<Long, ChunkSnapshot> snapshots, int count) {
+        try {
+            snapshots.forEach((key, snapshot) -> {
+                byte[] chunkCodes = new byte[256];
+                for (int i = 0; i < 256; i++) {
+                    Biome biome = snapshot.getBiome(i & 15, i >> 4);
+                    chunkCodes[i] = (byte) (biome == null ? WMChunk.NONE : WMChunk.encode(biome));
+                }
+                codes[index(WMChunk.keyX(key), WMChunk.keyZ(key))] = chunkCodes;
+            });
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            chunksRead(count);
+        }
+    }
+
+    private void readRegionFile(List<Long> keys) {
+        try {
+            Map<Long, int[]> biomes = OfflineBiomeWriter.readBiomes(world, regionX, regionZ, keys);
+            // Chunks that are not generated yet (or could not be read) are stored without data
+            biomes.forEach((key, ids) -> {
+                byte[] chunkCodes = new byte[256];
+                for (int i = 0; i < 256; i++) {
+                    if (ids[i] >= 0 && ids[i] < idToCode.length) chunkCodes[i] = (byte) idToCode[ids[i]];
+                }
+                codes[index(WMChunk.keyX(key), WMChunk.keyZ(key))] = chunkCodes;
+            });
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            chunksRead(keys.size());
+        }
+    }
+
+    /**
+     * Write region when all its chunks are read and continue with next region. Scanner thread.
+     */
+    private void chunksRead(int count) {
+        if (remaining.addAndGet(-count) > 0) return;
+        try {
+            writeRegion();
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed();
+            return;
+        }
+        codes = null;
+        if (++regionX > maxX >> REGION_SHIFT) {
+            regionX = minX >> REGION_SHIFT;
+            regionZ++;
+        }
+        if (regionZ <= maxZ >> REGION_SHIFT) {
+            Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), this::captureRegion);
+            return;
+        }
+        File file = getFile(name);
+        try {
+            out.close();
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed();
+            return;
+        }
+        long chunkCount = getChunkCount();
+        long size = Math.max(1, file.length() / 1024);
+        Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), () -> M.MSG_SNAPSHOTSAVED.print(sender, name, chunkCount, size));
+    }
+
+    private void failed() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (tmpFile != null) tmpFile.delete();
+        Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), () -> M.MSG_SNAPSHOTFAILED.print(sender, name));
+    }
+
+    /**
+     * Region data: palette of biome names (index 0 - no data) and columns (row by row) as run length and palette index
+     */
+    private void writeRegion() throws IOException {
+        int x1 = Math.max(minX, regionX << REGION_SHIFT);
+        int x2 = Math.min(maxX, (regionX << REGION_SHIFT) + 511);
+        int z1 = Math.max(minZ, regionZ << REGION_SHIFT);
+        int z2 = Math.min(maxZ, (regionZ << REGION_SHIFT) + 511);
+        int[] paletteIndex = new int[256];
+        List<String> palette = new ArrayList<>();
+        for (int z = z1; z <= z2; z++) {
+            for (int x = x1; x <= x2; x++) {
+                int code = getCode(x, z);
+                if (code == WMChunk.NONE || code == WMChunk.ORIGINAL || paletteIndex[code] != 0) continue;
+                palette.add(WMChunk.decode(code).name());
+                paletteIndex[code] = palette.size();
+            }
+        }
+        out.writeByte(palette.size());
+        for (String biome : palette) out.writeUTF(biome);
+        int current = -1;
+        int run = 0;
+        for (int z = z1; z <= z2; z++) {
+            for (int x = x1; x <= x2; x++) {
+                int value = paletteIndex[getCode(x, z)];
+                if (value == current) {
+                    run++;
+                    continue;
+                }
+                if (run > 0) writeRun(out, run, current);
+                current = value;
+                run = 1;
+            }
+        }
+        writeRun(out, run, current);
+    }
+
+    private static BiomeSnapshot read(CommandSender sender, String name, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) throw new IOException("Wrong snapshot file: " + file.getName());
+            BiomeSnapshot snapshot = new BiomeSnapshot(sender, name, in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            if (snapshot.minX > snapshot.maxX || snapshot.minZ > snapshot.maxZ || snapshot.getChunkCount() > Cfg.snapshotMaxChunks)
+                throw new IOException("Wrong snapshot area: " + file.getName());
+            for (int regionZ = snapshot.minZ >> REGION_SHIFT; regionZ <= snapshot.maxZ >> REGION_SHIFT; regionZ++) {
+                for (int regionX = snapshot.minX >> REGION_SHIFT; regionX <= snapshot.maxX >> REGION_SHIFT; regionX++) {
+                    snapshot.readRegion(in, regionX, regionZ);
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private void readRegion(DataInputStream in, int regionX, int regionZ) throws IOException {
+        int[] palette = new int[in.readUnsignedByte() + 1];
+        for (int i = 1; i < palette.length; i++) {
+            String biome = in.readUTF();
+            try {
+                palette[i] = WMChunk.encode(Biome.valueOf(biome));
+            } catch (IllegalArgumentException e) {
+                // Biome is unknown for this server version, columns will not be changed
+                palette[i] = WMChunk.NONE;
+            }
+        }
+        int run = 0;
+        int code = WMChunk.NONE;
+        for (int z = Math.max(minZ, regionZ << REGION_SHIFT); z <= Math.min(maxZ, (regionZ << REGION_SHIFT) + 511); z++) {
+            for (int x = Math.max(minX, regionX << REGION_SHIFT); x <= Math.min(maxX, (regionX << REGION_SHIFT) + 511); x++) {
+                if (run == 0) {
+                    run = readVarInt(in);
+                    int value = in.readUnsignedByte();
+                    if (run <= 0 || value >= palette.length) throw new IOException("Wrong snapshot data");
+                    code = palette[value];
+                }
+                run--;
+                if (code == WMChunk.NONE) continue;
+                chunks.computeIfAbsent(WMChunk.key(x >> 4, z >> 4), k -> new byte[256])[((z & 15) << 4) | (x & 15)] = (byte) code;
+            }
+        }
+        if (run != 0) throw new IOException("Wrong snapshot data");
+    }
+
+    private void restore(boolean offline) {
+        World world = Bukkit.getWorld(worldName);
+        if (world == null) {
+            M.MSG_SNAPSHOTFAILED.print(sender, name);
+            return;
+        }
+        Queue queue = new Queue(sender, world, true);
+        for (Map.Entry<Long, byte[]> entry : chunks.entrySet()) {
+            WMChunk wmChunk = new WMChunk(world, WMChunk.keyX(entry.getKey()), WMChunk.keyZ(entry.getKey()));
+            byte[] chunkCodes = entry.getValue();
+            for (int column = 0; column < 256; column++) {
+                if (chunkCodes[column] != WMChunk.NONE) wmChunk.setColumn(column, chunkCodes[column] & 0xFF);
+            }
+            queue.addChunk(wmChunk);
+        }
+        queue.setOffline(offline);
+        M.MSG_SNAPSHOTLOADED.print(sender, name, chunks.size());
+        QueueManager.addQueue(queue);
+    }
+
+    private static int index(int chunkX, int chunkZ) {
+        return ((chunkZ & 31) << 5) | (chunkX & 31);
+    }
+
+    private int getCode(int x, int z) {
+        byte[] chunkCodes = codes[index(x >> 4, z >> 4)];
+        return chunkCodes == null ? WMChunk.NONE : chunkCodes[((z & 15) << 4) | (x & 15)] & 0xFF;
+    }
+
+    private static void writeRun(DataOutputStream out, int run, int value) throws IOException {
+        while ((run & ~0x7F) != 0) {
+            out.writeByte((run & 0x7F) | 0x80);
+            run >>>= 7;
+        }
+        out.writeByte(run);
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Wrong snapshot data");
+    }
+
+    private static boolean isValidName(String name) {
+        return name.matches("[\\w-]+");
+    }
+
+    private static File getFile(String name) {
+        return new File(new File(WeatherMan.getPlugin().getDataFolder(), "snapshots"), name + ".wms");
+    }
+}
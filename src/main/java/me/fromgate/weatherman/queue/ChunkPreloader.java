@@ -0,0 +1,102 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.queue;
+
+import me.fromgate.weatherman.util.Cfg;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads chunks required by queues before they are processed and keeps
+ * them loaded (unload events are cancelled) until queues release them.
+ * Chunks are loaded asynchronously when server provides World.getChunkAtAsync (Paper),
+ * otherwise limited number of chunks is loaded every tick.
+ */
+public class ChunkPreloader {
+
+    private static Map<World, Map<Long, Integer>> pins = new HashMap<>();
+    private static Method getChunkAtAsync;
+    private static int syncLoadsLeft = 0;
+
+    static {
+        try {
+            getChunkAtAsync = World.class.getMethod("getChunkAtAsync", int.class, int.class, boolean.class);
+        } catch (Exception e) {
+            getChunkAtAsync = null;
+        }
+    }
+
+    /**
+     * Reset limit of synchronously loaded chunks. Called by QueueTask every tick.
+     */
+    static void newTick() {
+        syncLoadsLeft = Cfg.queueSyncLoadsPerTick;
+    }
+
+    /**
+     * Pin chunk and start loading it
+     *
+     * @return false if chunk could not be loaded during this tick (try again later)
+     */
+    static boolean pin(World world, int chunkX, int chunkZ) {
+        if (!world.isChunkLoaded(chunkX, chunkZ) && !load(world, chunkX, chunkZ)) return false;
+        pins.computeIfAbsent(world, w -> new HashMap<>()).merge(WMChunk.key(chunkX, chunkZ), 1, Integer::sum);
+        return true;
+    }
+
+    static void release(World world, long key) {
+        Map<Long, Integer> worldPins = pins.get(world);
+        if (worldPins == null) return;
+        worldPins.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+        if (worldPins.isEmpty()) pins.remove(world);
+    }
+
+    public static boolean isPinned(Chunk chunk) {
+        Map<Long, Integer> worldPins = pins.get(chunk.getWorld());
+        return worldPins != null && worldPins.containsKey(WMChunk.key(chunk.getX(), chunk.getZ()));
+    }
+
+    public static void clear() {
+        pins.clear();
+    }
+
+    private static boolean load(World world, int chunkX, int chunkZ) {
+        if (getChunkAtAsync != null) {
+            try {
+                getChunkAtAsync.invoke(world, chunkX, chunkZ, true);
+                return true;
+            } catch (Exception e) {
+                e.printStackTrace();
+                getChunkAtAsync = null;
+            }
+        }
+        if (syncLoadsLeft <= 0) return false;
+        syncLoadsLeft--;
+        world.loadChunk(chunkX, chunkZ, true);
+        return true;
+    }
+}
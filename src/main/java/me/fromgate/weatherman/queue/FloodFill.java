@@ -1,4 +1,4 @@
-/*  
+/*
  *  WeatherMan, Minecraft bukkit plugin
  *  ©2012-2018, fromgate, fromgate@gmail.com
  *  https://www.spigotmc.org/resources/weatherman.43379/
@@ -22,107 +22,259 @@
 
 package me.fromgate.weatherman.queue;
 
-import org.bukkit.Location;
+import me.fromgate.weatherman.util.Cfg;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
 import org.bukkit.block.Biome;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * Scanline flood fill of biome area.
+ * Columns that could be filled (source biome, not visited yet) are stored in bitmaps
+ * (256 bits per chunk) built from chunk snapshots, bitmaps of chunks without such columns are shared.
+ * Area is scanned step by step in scanner thread (see ScanPool):
+ * main thread takes snapshots of chunks requested by previous step
+ * (unloaded chunks are loaded by ChunkPreloader and stay pending until they are loaded)
+ * and moves found columns to queue, so queue starts to change
+ * biomes before scanning is finished.
+ */
 public class FloodFill {
 
-    public static Set<BiomeBlock> scanArea(Location loc, Biome toBiome) {
-        Biome fromBiome = loc.getBlock().getBiome();
-        Set<BiomeBlock> result = new HashSet<>();
-        if (toBiome == fromBiome) return result;
-        Set<BiomeBlock> scanFrom = new HashSet<>();
-        scanFrom.add(new BiomeBlock(loc, toBiome));
-        do {
-            Set<BiomeBlock> nextScan = new HashSet<>();
-            for (BiomeBlock scanBlock : scanFrom) {
-                Set<BiomeBlock> scanLine = scanLine(scanBlock, toBiome);
-                result.addAll(scanLine);
-                Set<BiomeBlock> next = findNext(scanLine, fromBiome);
-                for (BiomeBlock nextBlock : next) {
-                    if (!result.contains(nextBlock)) nextScan.add(nextBlock);
-                }
-                /*if ((next[0]!=null)&&(!result.contains(next[0]))) nextScan.add(next[0]);
-                if ((next[1]!=null)&&(!result.contains(next[1]))) nextScan.add(next[1]);*/
+    private final World world;
+    private final Biome fromBiome;
+    private final Biome toBiome;
+    private final Queue queue;
+    private static final long[] NOTHING_TO_FILL = new long[4];
+
+    private final Map<Long, long[]> fillable = new HashMap<>();
+    private final Map<Long, ChunkSnapshot> snapshots = new HashMap<>();
+    private final Set<Long> missing = new HashSet<>();
+    // Chunks pinned by ChunkPreloader
+    private final Set<Long> pinned = new HashSet<>();
+
+    private int[] stack = new int[256];
+    private int stackSize = 0;
+    private int[] deferred = new int[64];
+    private int deferredSize = 0;
+    private int[] found = new int[256];
+    private int foundSize = 0;
+    private int columns = 0;
+    private boolean limitReached = false;
+    private volatile boolean running = false;
+    // Previous step found new columns
+    private boolean progress = true;
+
+    public FloodFill(Queue queue, int x, int z, Biome toBiome) {
+        this.queue = queue;
+        this.world = queue.getWorld();
+        this.toBiome = toBiome;
+        this.fromBiome = world.getBiome(x, z);
+        if (fromBiome != toBiome) push(x, z);
+    }
+
+    /**
+     * Apply results of previous step and start next one. Main thread only.
+     *
+     * @param maxColumns - number of columns to find during the step
+     */
+    public void step(int maxColumns) {
+        if (running) return;
+        for (int i = 0; i < foundSize; i += 2) {
+            queue.addColumn(found[i], found[i + 1], toBiome);
+        }
+        foundSize = 0;
+        if (isFinished()) return;
+        boolean loaded = missing.isEmpty();
+        Iterator<Long> iterator = missing.iterator();
+        while (iterator.hasNext()) {
+            long key = iterator.next();
+            int chunkX = WMChunk.keyX(key);
+            int chunkZ = WMChunk.keyZ(key);
+            if (!pinned.contains(key) && ChunkPreloader.pin(world, chunkX, chunkZ)) pinned.add(key);
+            if (!world.isChunkLoaded(chunkX, chunkZ)) continue;
+            snapshots.put(key, world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, true, false));
+            if (pinned.remove(key)) ChunkPreloader.release(world, key);
+            iterator.remove();
+            loaded = true;
+        }
+        // Nothing to scan until pending chunks are loaded
+        if (!loaded && !progress) return;
+        running = true;
+        ScanPool.submit(() -> {
+            try {
+                scan(maxColumns);
+            } catch (Throwable e) {
+                e.printStackTrace();
+                stackSize = 0;
+            } finally {
+                running = false;
             }
-            scanFrom.clear();
-            scanFrom.addAll(nextScan);
-        } while (!scanFrom.isEmpty());
-        return result;
+        });
     }
 
+    /**
+     * Release chunks pinned by flood fill. Main thread only.
+     */
+    public void release() {
+        for (long key : pinned) {
+            ChunkPreloader.release(world, key);
+        }
+        pinned.clear();
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public boolean isLimitReached() {
+        return limitReached;
+    }
 
-    public static Set<BiomeBlock> findNext(Set<BiomeBlock> line, Biome fromBiome) {
-        Set<BiomeBlock> tmp = new HashSet<>();
-        Set<BiomeBlock> next = new HashSet<>();
-        for (BiomeBlock biomeBlock : line) {
-            Location tmpLoc = biomeBlock.getLocation().add(0, 0, 1);
-            if (tmpLoc.getBlock().getBiome() == fromBiome) tmp.add(new BiomeBlock(tmpLoc, biomeBlock.biome));
-            tmpLoc = biomeBlock.getLocation().add(0, 0, -1);
-            if (tmpLoc.getBlock().getBiome() == fromBiome) tmp.add(new BiomeBlock(tmpLoc, biomeBlock.biome));
+    public boolean isFinished() {
+        return !running && foundSize == 0 && (stackSize == 0 || limitReached);
+    }
+
+    private void scan(int maxColumns) {
+        int start = columns;
+        int limit = columns + Math.max(1, maxColumns);
+        while (stackSize > 0 && !limitReached && columns < limit) {
+            stackSize -= 2;
+            int x = stack[stackSize];
+            int z = stack[stackSize + 1];
+            if (!scanSpan(x, z)) {
+                deferred = add(deferred, deferredSize, x, z);
+                deferredSize += 2;
+            }
+        }
+        while (deferredSize > 0) {
+            deferredSize -= 2;
+            push(deferred[deferredSize], deferred[deferredSize + 1]);
         }
+        progress = columns > start;
+    }
 
-        for (BiomeBlock bb : tmp) {
-            BiomeBlock b1 = new BiomeBlock(bb.getLocation().add(1, 0, 0), bb.biome);
-            BiomeBlock b2 = new BiomeBlock(bb.getLocation().add(-1, 0, 0), bb.biome);
-            if (!tmp.contains(b1)) next.add(bb);
-            if (!tmp.contains(b2)) next.add(bb);
+    /**
+     * @return false if span needs chunks that are not scanned yet,
+     * such spans are deferred until main thread takes snapshots
+     */
+    private boolean scanSpan(int x, int z) {
+        if (!prepareChunk(x >> 4, z >> 4)) return false;
+        if (!isFillable(x, z)) return true;
+        int x1 = x;
+        while (true) {
+            if (!prepareChunk((x1 - 1) >> 4, z >> 4)) return false;
+            if (!isFillable(x1 - 1, z)) break;
+            x1--;
+        }
+        int x2 = x;
+        while (true) {
+            if (!prepareChunk((x2 + 1) >> 4, z >> 4)) return false;
+            if (!isFillable(x2 + 1, z)) break;
+            x2++;
+        }
+        boolean ready = true;
+        for (int cx = x1 >> 4; cx <= x2 >> 4; cx++) {
+            ready &= prepareChunk(cx, (z - 1) >> 4);
+            ready &= prepareChunk(cx, (z + 1) >> 4);
+        }
+        if (!ready) return false;
+        // Span that exceeds the limit is not filled, columns found before are already moved to queue
+        if (Cfg.floodFillMaxColumns > 0 && columns + x2 - x1 + 1 > Cfg.floodFillMaxColumns) {
+            limitReached = true;
+            return true;
+        }
+        for (int i = x1; i <= x2; i++) {
+            setVisited(i, z);
+            addFound(i, z);
         }
+        columns += x2 - x1 + 1;
+        pushSpans(x1, x2, z - 1);
+        pushSpans(x1, x2, z + 1);
+        return true;
+    }
 
-        return next;
-    }
-
-	/*public static BiomeBlock[] getLeftRight(Set<BiomeBlock> line){
-		BiomeBlock[] lnr = {null,null};
-		
-		if (line.isEmpty()) return lnr;
-		for (BiomeBlock biomeBlock : line){
-			if (lnr[0]==null) {
-				lnr[0] = biomeBlock;
-				lnr[1] = biomeBlock;
-			}
-			if (biomeBlock.x<lnr[0].x) lnr[0].x=biomeBlock.x;
-			if (biomeBlock.x>lnr[1].x) lnr[1].x=biomeBlock.x;
-		}
-		return lnr;
-		
-	}*/
-
-
-    public static Set<BiomeBlock> scanLine(BiomeBlock scanFrom, Biome toBiome) {
-        Set<BiomeBlock> line = new HashSet<>();
-        Location loc = scanFrom.getLocation();
-        Biome fromBiome = loc.getBlock().getBiome();
-
-        while (loc.getBlock().getBiome() == fromBiome) {
-            line.add(new BiomeBlock(loc, toBiome));
-            loc = loc.add(1, 0, 0);
+    /**
+     * Push one seed for every fillable part of line
+     */
+    private void pushSpans(int x1, int x2, int z) {
+        boolean inSpan = false;
+        for (int x = x1; x <= x2; x++) {
+            if (isFillable(x, z)) {
+                if (!inSpan) {
+                    push(x, z);
+                    inSpan = true;
+                }
+            } else {
+                inSpan = false;
+            }
         }
+    }
 
-        loc = scanFrom.getLocation();
+    private void push(int x, int z) {
+        stack = add(stack, stackSize, x, z);
+        stackSize += 2;
+    }
 
-        while (loc.getBlock().getBiome() == fromBiome) {
-            line.add(new BiomeBlock(loc, toBiome));
-            loc = loc.add(-1, 0, 0);
+    private void addFound(int x, int z) {
+        found = add(found, foundSize, x, z);
+        foundSize += 2;
+    }
+
+    private static int[] add(int[] array, int size, int x, int z) {
+        if (size + 2 > array.length) {
+            int[] newArray = new int[array.length * 2];
+            System.arraycopy(array, 0, newArray, 0, size);
+            array = newArray;
         }
-		
-		
-		/*while (loc.getBlock().getRelative(1, 0, 0).getBiome().equals(fromBiome)){
-			line.add(new BiomeBlock (loc.getBlock().getRelative(1, 0, 0).getLocation(),toBiome));
-			loc.add(1, 0, 0);
-		}
-		
-		loc = scanFrom.getLocation();
-		while (loc.getBlock().getRelative(-1, 0, 0).getBiome().equals(fromBiome)){
-			line.add(new BiomeBlock (loc.getBlock().getRelative(-1, 0, 0).getLocation(),toBiome));
-			loc.add(-1, 0, 0);
-		} */
+        array[size] = x;
+        array[size + 1] = z;
+        return array;
+    }
 
-        return line;
+    /**
+     * Read biomes of chunk from snapshot
+     *
+     * @return false if chunk snapshot must be taken by main thread
+     */
+    private boolean prepareChunk(int chunkX, int chunkZ) {
+        long key = WMChunk.key(chunkX, chunkZ);
+        if (fillable.containsKey(key)) return true;
+        ChunkSnapshot snapshot = snapshots.remove(key);
+        if (snapshot == null) {
+            missing.add(key);
+            return false;
+        }
+        long[] bits = new long[4];
+        for (int i = 0; i < 256; i++) {
+            if (snapshot.getBiome(i & 15, i >> 4) == fromBiome) bits[i >> 6] |= 1L << (i & 63);
+        }
+        fillable.put(key, isEmpty(bits) ? NOTHING_TO_FILL : bits);
+        return true;
     }
 
+    private boolean isFillable(int x, int z) {
+        long[] bits = fillable.get(WMChunk.key(x >> 4, z >> 4));
+        int index = ((z & 15) << 4) | (x & 15);
+        return (bits[index >> 6] & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Column is filled and will not be checked again
+     */
+    private void setVisited(int x, int z) {
+        long key = WMChunk.key(x >> 4, z >> 4);
+        long[] bits = fillable.get(key);
+        int index = ((z & 15) << 4) | (x & 15);
+        bits[index >> 6] &= ~(1L << (index & 63));
+        if (isEmpty(bits)) fillable.put(key, NOTHING_TO_FILL);
+    }
 
+    private static boolean isEmpty(long[] bits) {
+        return (bits[0] | bits[1] | bits[2] | bits[3]) == 0;
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.queue;
+
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.util.Cfg;
+import me.fromgate.weatherman.util.lang.M;
+import org.bukkit.command.CommandSender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo/redo history of biome queues. Last entries of every sender are kept in memory,
+ * older undo entries are moved to disk (folder "history") in background thread.
+ */
+public class History {
+
+    static final int NORMAL = 0;
+    static final int UNDO = 1;
+    static final int REDO = 2;
+
+    private static Map<String, Deque<HistoryEntry>> undo = new HashMap<>();
+    private static Map<String, Deque<HistoryEntry>> redo = new HashMap<>();
+    private static Map<String, Deque<File>> spilled = new HashMap<>();
+    private static Map<File, HistoryEntry> pending = new ConcurrentHashMap<>();
+    private static ExecutorService executor = null;
+    private static long lastFileId = 0;
+
+    /**
+     * Remove history of previous session
+     */
+    public static void init() {
+        File[] folders = getFolder().listFiles();
+        if (folders == null) return;
+        for (File folder : folders) {
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            folder.delete();
+        }
+    }
+
+    /**
+     * Store changes of finished queue
+     *
+     * @param mode - NORMAL (new changes, redo history is cleared), UNDO or REDO
+     */
+    static void add(String owner, HistoryEntry entry, int mode) {
+        if (Cfg.historySize <= 0) return;
+        String key = owner.toLowerCase();
+        if (mode == UNDO) {
+            Deque<HistoryEntry> entries = redo.computeIfAbsent(key, k -> new ArrayDeque<>());
+            entries.addFirst(entry);
+            while (entries.size() > Cfg.historySize) entries.removeLast();
+            return;
+        }
+        if (mode == NORMAL) redo.remove(key);
+        Deque<HistoryEntry> entries = undo.computeIfAbsent(key, k -> new ArrayDeque<>());
+        entries.addFirst(entry);
+        while (entries.size() > Cfg.historySize) {
+            spill(key, entries.removeLast());
+        }
+    }
+
+    public static boolean undo(CommandSender sender) {
+        String key = sender.getName().toLowerCase();
+        HistoryEntry entry = poll(undo.get(key));
+        if (entry == null) entry = loadSpilled(key);
+        if (entry == null) return M.MSG_UNDONOTHING.print(sender);
+        return start(sender, entry, UNDO);
+    }
+
+    public static boolean redo(CommandSender sender) {
+        HistoryEntry entry = poll(redo.get(sender.getName().toLowerCase()));
+        if (entry == null) return M.MSG_REDONOTHING.print(sender);
+        return start(sender, entry, REDO);
+    }
+
+    private static boolean start(CommandSender sender, HistoryEntry entry, int mode) {
+        Queue queue = entry.createQueue(sender);
+        if (queue == null) return M.MSG_WRONGLOCATION.print(sender);
+        queue.setHistoryMode(mode);
+        M.MSG_UNDOSTARTED.print(sender, entry.size());
+        return QueueManager.addQueue(queue);
+    }
+
+    private static HistoryEntry poll(Deque<HistoryEntry> entries) {
+        return entries == null ? null : entries.pollFirst();
+    }
+
+    private static void spill(String key, HistoryEntry entry) {
+        if (Cfg.historyDiskSize <= 0) return;
+        lastFileId = Math.max(lastFileId + 1, System.currentTimeMillis());
+        File file = new File(new File(getFolder(), key), lastFileId + ".wmh");
+        Deque<File> files = spilled.computeIfAbsent(key, k -> new ArrayDeque<>());
+        files.addFirst(file);
+        pending.put(file, entry);
+        submit(() -> {
+            file.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                entry.write(out);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pending.remove(file);
+        });
+        while (files.size() > Cfg.historyDiskSize) {
+            File oldFile = files.removeLast();
+            submit(oldFile::delete);
+        }
+    }
+
+    private static HistoryEntry loadSpilled(String key) {
+        Deque<File> files = spilled.get(key);
+        if (files == null || files.isEmpty()) return null;
+        File file = files.removeFirst();
+        HistoryEntry entry = pending.get(file);
+        if (entry == null) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                entry = HistoryEntry.read(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        submit(file::delete);
+        return entry;
+    }
+
+    static void stop() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        executor = null;
+    }
+
+    private static void submit(Runnable task) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "WeatherMan history writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        executor.execute(task);
+    }
+
+    private static File getFolder() {
+        return new File(WeatherMan.getPlugin().getDataFolder(), "history");
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.queue;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Previous biomes of columns changed by single queue.
+ * Every chunk is stored as run-length encoded array of column codes (see WMChunk),
+ * unchanged columns are stored as WMChunk.NONE.
+ */
+class HistoryEntry {
+
+    private final UUID worldId;
+    private int[] coords = new int[64];
+    private final List<byte[]> deltas = new ArrayList<>();
+
+    HistoryEntry(UUID worldId) {
+        this.worldId = worldId;
+    }
+
+    /**
+     * @param previous - chunk with previous biomes of changed columns
+     */
+    void add(WMChunk previous) {
+        int index = deltas.size() * 2;
+        if (index + 2 > coords.length) {
+            int[] newCoords = new int[coords.length * 2];
+            System.arraycopy(coords, 0, newCoords, 0, index);
+            coords = newCoords;
+        }
+        coords[index] = previous.getX();
+        coords[index + 1] = previous.getZ();
+        deltas.add(encode(previous.columns));
+    }
+
+    boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    int size() {
+        return deltas.size();
+    }
+
+    /**
+     * Create queue that restores previous biomes
+     *
+     * @return queue or null if world is not loaded
+     */
+    Queue createQueue(CommandSender sender) {
+        World world = Bukkit.getWorld(worldId);
+        if (world == null) return null;
+        Queue queue = new Queue(sender, world, true);
+        // Chunk could be changed several times, the earliest biome must be restored
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            WMChunk wmChunk = new WMChunk(world, coords[i * 2], coords[i * 2 + 1]);
+            decode(deltas.get(i), wmChunk);
+            queue.addChunk(wmChunk);
+        }
+        return queue;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(worldId.getMostSignificantBits());
+        out.writeLong(worldId.getLeastSignificantBits());
+        out.writeInt(deltas.size());
+        for (int i = 0; i < deltas.size(); i++) {
+            out.writeInt(coords[i * 2]);
+            out.writeInt(coords[i * 2 + 1]);
+            byte[] delta = deltas.get(i);
+            out.writeShort(delta.length);
+            out.write(delta);
+        }
+    }
+
+    static HistoryEntry read(DataInputStream in) throws IOException {
+        HistoryEntry entry = new HistoryEntry(new UUID(in.readLong(), in.readLong()));
+        int count = in.readInt();
+        entry.coords = new int[Math.max(2, count * 2)];
+        for (int i = 0; i < count; i++) {
+            entry.coords[i * 2] = in.readInt();
+            entry.coords[i * 2 + 1] = in.readInt();
+            byte[] delta = new byte[in.readUnsignedShort()];
+            in.readFully(delta);
+            entry.deltas.add(delta);
+        }
+        return entry;
+    }
+
+    /**
+     * Pairs of bytes: run length - 1, column code
+     */
+    private static byte[] encode(byte[] columns) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        int i = 0;
+        while (i < columns.length) {
+            int j = i + 1;
+            while (j < columns.length && columns[j] == columns[i]) j++;
+            out.write(j - i - 1);
+            out.write(columns[i]);
+            i = j;
+        }
+        return out.toByteArray();
+    }
+
+    private static void decode(byte[] delta, WMChunk wmChunk) {
+        int index = 0;
+        for (int i = 0; i + 1 < delta.length; i += 2) {
+            int length = (delta[i] & 0xFF) + 1;
+            int code = delta[i + 1] & 0xFF;
+            for (int j = 0; j < length && index < 256; j++, index++) {
+                if (code != WMChunk.NONE) wmChunk.setColumn(index, code);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.queue;
+
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.util.lang.M;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal of biome queues (folder "jobs"), unfinished queues are restored after restart.
+ * Every queue is stored in two files:
+ * &lt;id&gt;.job - queue definition, biome names (biome codes of records could differ after server update)
+ * and chunk records (records are only appended),
+ * &lt;id&gt;.done - bitmap of processed (or replaced by newer record) chunk records.
+ * Checkpoints are prepared in main thread and written in background thread.
+ */
+class JobJournal {
+
+    private static final int MAGIC = 0x574D4A42; // WMJB
+    private static final int VERSION = 2;
+    private static final int RECORD_UNIFORM = 0;
+    private static final int RECORD_COLUMNS = 1;
+
+    private static ExecutorService executor = null;
+    private static long lastId = 0;
+
+    /**
+     * Data of single checkpoint (copied in main thread)
+     */
+    static class Checkpoint {
+        long id;
+        boolean create;
+        UUID worldId;
+        boolean setBiome;
+        String filterBiome;
+        List<WMChunk> records = new ArrayList<>();
+        BitSet done;
+    }
+
+    static long nextId() {
+        lastId = Math.max(lastId + 1, System.currentTimeMillis());
+        return lastId;
+    }
+
+    static void checkpoint(Collection<Queue> queues) {
+        for (Queue queue : queues) {
+            checkpoint(queue);
+        }
+    }
+
+    static void checkpoint(Queue queue) {
+        Checkpoint checkpoint = queue.checkpoint();
+        if (checkpoint == null) return;
+        submit(() -> write(checkpoint));
+    }
+
+    static void delete(long id) {
+        submit(() -> {
+            getFile(id, "job").delete();
+            getFile(id, "done").delete();
+        });
+    }
+
+    /**
+     * Wait until all checkpoints are written
+     */
+    static void stop() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        executor = null;
+    }
+
+    private static void submit(Runnable task) {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "WeatherMan job journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        executor.execute(task);
+    }
+
+    private static File getFolder() {
+        return new File(WeatherMan.getPlugin().getDataFolder(), "jobs");
+    }
+
+    private static File getFile(long id, String extension) {
+        return new File(getFolder(), id + "." + extension);
+    }
+
+    private static void write(Checkpoint checkpoint) {
+        try {
+            File jobFile = getFile(checkpoint.id, "job");
+            if (checkpoint.create) {
+                jobFile.getParentFile().mkdirs();
+            } else if (!jobFile.exists()) {
+                return;
+            }
+            if (checkpoint.create || !checkpoint.records.isEmpty()) {
+                try (FileOutputStream stream = new FileOutputStream(jobFile, !checkpoint.create);
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                    if (checkpoint.create) {
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeLong(checkpoint.worldId.getMostSignificantBits());
+                        out.writeLong(checkpoint.worldId.getLeastSignificantBits());
+                        out.writeBoolean(checkpoint.setBiome);
+                        out.writeUTF(checkpoint.filterBiome);
+                        Biome[] biomes = Biome.values();
+                        out.writeShort(biomes.length);
+                        for (Biome biome : biomes) {
+                            out.writeUTF(biome.name());
+                        }
+                    }
+                    for (WMChunk wmChunk : checkpoint.records) {
+                        writeRecord(out, wmChunk);
+                    }
+                    out.flush();
+                    stream.getFD().sync();
+                }
+            }
+            File doneFile = getFile(checkpoint.id, "done");
+            File tmpFile = getFile(checkpoint.id, "done.tmp");
+            Files.write(tmpFile.toPath(), checkpoint.done.toByteArray());
+            Files.move(tmpFile.toPath(), doneFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, WMChunk wmChunk) throws IOException {
+        out.writeInt(wmChunk.getX());
+        out.writeInt(wmChunk.getZ());
+        int code = wmChunk.getColumn(0);
+        boolean uniform = wmChunk.size() == 256;
+        for (int i = 1; i < 256 && uniform; i++) {
+            uniform = wmChunk.getColumn(i) == code;
+        }
+        if (uniform) {
+            out.writeByte(RECORD_UNIFORM);
+            out.writeByte(code);
+        } else {
+            out.writeByte(RECORD_COLUMNS);
+            for (int i = 0; i < 256; i++) {
+                out.writeByte(wmChunk.getColumn(i));
+            }
+        }
+    }
+
+    /**
+     * Load unfinished queues. Queues of worlds that are not loaded are skipped.
+     */
+    static List<Queue> load() {
+        List<Queue> queues = new ArrayList<>();
+        File[] files = getFolder().listFiles((dir, name) -> name.endsWith(".job"));
+        if (files == null) return queues;
+        for (File file : files) {
+            try {
+                long id = Long.parseLong(file.getName().substring(0, file.getName().length() - 4));
+                lastId = Math.max(lastId, id);
+                Queue queue = load(id, file);
+                if (queue != null) queues.add(queue);
+            } catch (Exception e) {
+                M.logMessage("Failed to load biome queue journal: " + file.getName());
+                e.printStackTrace();
+            }
+        }
+        return queues;
+    }
+
+    private static Queue load(long id, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Wrong journal format");
+            UUID worldId = new UUID(in.readLong(), in.readLong());
+            boolean setBiome = in.readBoolean();
+            String filterName = in.readUTF();
+            World world = Bukkit.getWorld(worldId);
+            if (world == null) return null;
+            Biome filterBiome = filterName.isEmpty() ? null : Biome.valueOf(filterName);
+            int[] codes = readCodes(in);
+            File doneFile = getFile(id, "done");
+            BitSet done = doneFile.exists() ? BitSet.valueOf(Files.readAllBytes(doneFile.toPath())) : new BitSet();
+
+            Map<Long, WMChunk> chunks = new LinkedHashMap<>();
+            int records = 0;
+            while (true) {
+                WMChunk wmChunk;
+                try {
+                    wmChunk = readRecord(in, world, codes);
+                } catch (EOFException e) {
+                    break; // last record was not written completely
+                }
+                int index = records++;
+                if (done.get(index)) continue;
+                WMChunk previous = chunks.get(wmChunk.getKey());
+                if (previous == null) {
+                    wmChunk.journalIndex = index;
+                    wmChunk.journalDirty = false;
+                    chunks.put(wmChunk.getKey(), wmChunk);
+                } else {
+                    // Both records are replaced by new one during next checkpoint
+                    done.set(previous.journalIndex);
+                    previous.merge(wmChunk);
+                    previous.journalIndex = index;
+                }
+            }
+            if (chunks.isEmpty()) {
+                delete(id);
+                return null;
+            }
+            return new Queue(Bukkit.getConsoleSender(), world, setBiome, filterBiome, id, records, done, chunks.values());
+        }
+    }
+
+    /**
+     * Read biome names stored in journal
+     *
+     * @return current biome codes indexed by stored biome codes
+     */
+    private static int[] readCodes(DataInputStream in) throws IOException {
+        int[] codes = new int[256];
+        codes[WMChunk.ORIGINAL] = WMChunk.ORIGINAL;
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            if (i + 1 >= WMChunk.ORIGINAL) continue;
+            try {
+                codes[i + 1] = WMChunk.encode(Biome.valueOf(name));
+            } catch (IllegalArgumentException e) {
+                M.logMessage("Unknown biome in biome queue journal: " + name);
+            }
+        }
+        return codes;
+    }
+
+    private static WMChunk readRecord(DataInputStream in, World world, int[] codes) throws IOException {
+        WMChunk wmChunk = new WMChunk(world, in.readInt(), in.readInt());
+        int type = in.readUnsignedByte();
+        if (type == RECORD_UNIFORM) {
+            int code = codes[in.readUnsignedByte()];
+            if (code != WMChunk.NONE) {
+                for (int i = 0; i < 256; i++) {
+                    wmChunk.setColumn(i, code);
+                }
+            }
+        } else if (type == RECORD_COLUMNS) {
+            for (int i = 0; i < 256; i++) {
+                int code = codes[in.readUnsignedByte()];
+                if (code != WMChunk.NONE) wmChunk.setColumn(i, code);
+            }
+        } else {
+            throw new EOFException();
+        }
+        return wmChunk;
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.queue;
+
+import me.fromgate.weatherman.util.NmsUtil;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Writes biomes of chunks that are not loaded directly to region file (.mca).
+ * Runs in scanner thread (one writer per region file), changed chunk data is written
+ * to free sectors and chunk location is updated after data is written, so previous data
+ * is kept if server stops while writing. Chunks that could not be written this way
+ * (not generated yet, changed by server while writing, etc.) are returned to be processed by queue.
+ * Pending server saves are flushed before writing, every chunk is read and written while
+ * server region files are locked, chunks loaded during writing are processed by queue too.
+ */
+class OfflineBiomeWriter {
+
+    private static final int SECTOR_BYTES = 4096;
+    private static final int GZIP = 1;
+    private static final int ZLIB = 2;
+
+    private static final Set<OfflineBiomeWriter> active = ConcurrentHashMap.newKeySet();
+
+    private final World world;
+    private final int regionX;
+    private final int regionZ;
+    private final File file;
+    private final List<WMChunk> chunks;
+    private final int[] biomeIds;
+    private final int filterId;
+    private final int[] idToCode;
+    private WMChunk lastPrevious;
+
+    final List<WMChunk> written = new ArrayList<>();
+    final List<WMChunk> done = new ArrayList<>();
+    // Previous biomes of changed columns (undo history)
+    final List<WMChunk> previous = new ArrayList<>();
+    final List<WMChunk> live = new ArrayList<>();
+    // Chunks loaded by server after writer was created
+    final Set<Long> loaded = ConcurrentHashMap.newKeySet();
+    int unchanged = 0;
+    int columns = 0;
+
+    /**
+     * @param biomeIds - biome ids used in region files, indexed by Biome ordinal
+     */
+    OfflineBiomeWriter(World world, int regionX, int regionZ, List<WMChunk> chunks, int[] biomeIds, Biome filterBiome) {
+        this.world = world;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+        this.file = getRegionFile(world, regionX, regionZ);
+        this.chunks = chunks;
+        this.biomeIds = biomeIds;
+        this.filterId = filterBiome == null ? -1 : biomeIds[filterBiome.ordinal()];
+        this.idToCode = idToCode(biomeIds);
+        active.add(this);
+    }
+
+    /**
+     * Called in main thread when chunk is loaded
+     */
+    static void chunkLoaded(Chunk chunk) {
+        if (active.isEmpty()) return;
+        for (OfflineBiomeWriter writer : active) {
+            if (writer.world == chunk.getWorld() && writer.regionX == chunk.getX() >> 5 && writer.regionZ == chunk.getZ() >> 5)
+                writer.loaded.add(WMChunk.key(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    /**
+     * Stop tracking of loaded chunks (called in main thread when results are applied)
+     */
+    void close() {
+        active.remove(this);
+    }
+
+    /**
+     * Build reverse table: biome id -> WMChunk biome code
+     */
+    static int[] idToCode(int[] biomeIds) {
+        int maxId = 0;
+        for (int id : biomeIds) maxId = Math.max(maxId, id);
+        int[] idToCode = new int[maxId + 1];
+        for (int i = 0; i < biomeIds.length; i++) {
+            if (biomeIds[i] >= 0) idToCode[biomeIds[i]] = i + 1;
+        }
+        return idToCode;
+    }
+
+    private static File getRegionFile(World world, int regionX, int regionZ) {
+        return new File(getRegionFolder(world), "r." + regionX + "." + regionZ + ".mca");
+    }
+
+    private static File getRegionFolder(World world) {
+        switch (world.getEnvironment()) {
+            case NETHER:
+                return new File(world.getWorldFolder(), "DIM-1" + File.separator + "region");
+            case THE_END:
+                return new File(world.getWorldFolder(), "DIM1" + File.separator + "region");
+            default:
+                return new File(world.getWorldFolder(), "region");
+        }
+    }
+
+    void write() {
+        Object regionLock = NmsUtil.getRegionFileLock();
+        if (!file.exists() || regionLock == null || !NmsUtil.waitForSaves()) {
+            live.addAll(chunks);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (WMChunk wmChunk : chunks) {
+                int changed = -1;
+                try {
+                    changed = writeChunk(channel, regionLock, wmChunk);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if (changed < 0) {
+                    live.add(wmChunk);
+                } else if (changed == 0) {
+                    unchanged++;
+                    done.add(wmChunk);
+                } else {
+                    written.add(wmChunk);
+                    done.add(wmChunk);
+                    previous.add(lastPrevious);
+                    columns += changed;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            for (WMChunk wmChunk : chunks) {
+                if (!done.contains(wmChunk) && !live.contains(wmChunk)) live.add(wmChunk);
+            }
+        }
+    }
+
+    /**
+     * @return number of changed columns or -1 if chunk could not be written
+     */
+    private int writeChunk(FileChannel channel, Object regionLock, WMChunk wmChunk) throws IOException {
+        int index = (wmChunk.getX() & 31) + (wmChunk.getZ() & 31) * 32;
+        int[] compression = new int[1];
+        int location;
+        byte[] data;
+        // Server could not read or save chunks while region files are locked
+        synchronized (regionLock) {
+            if (loaded.contains(wmChunk.getKey())) return -1;
+            location = readInt(channel, index * 4);
+            data = readChunk(channel, location, compression);
+        }
+        if (data == null) return -1;
+        ByteArrayOutputStream nbt = new ByteArrayOutputStream(data.length * 4);
+        int changed;
+        try (DataInputStream in = openNbt(data, compression[0])) {
+            changed = new NbtCopier(in, new DataOutputStream(nbt), biomes -> applyColumns(wmChunk, biomes)).copy();
+        }
+        if (changed <= 0) return changed;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 1024);
+        out.write(new byte[5]);
+        try (OutputStream stream = compression[0] == GZIP ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+            nbt.writeTo(stream);
+        }
+        int sectors = (out.size() + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        if (sectors > 255) return -1;
+        ByteBuffer buffer = ByteBuffer.allocate(sectors * SECTOR_BYTES);
+        buffer.put(out.toByteArray());
+        buffer.putInt(0, out.size() - 4);
+        buffer.put(4, (byte) compression[0]);
+        buffer.clear();
+
+        synchronized (regionLock) {
+            // Chunk was loaded or saved by server while it was changed
+            if (loaded.contains(wmChunk.getKey()) || readInt(channel, index * 4) != location) return -1;
+            if (!Arrays.equals(data, readChunk(channel, location, new int[1]))) return -1;
+            if (!NmsUtil.closeRegionFile(file)) return -1;
+            int sector = findFreeSectors(channel, sectors);
+            write(channel, buffer, (long) sector * SECTOR_BYTES);
+            channel.force(false);
+            // Location is changed after data is written: previous data is kept if writing is interrupted
+            write(channel, ByteBuffer.allocate(4).putInt(0, sector << 8 | sectors), index * 4);
+            write(channel, ByteBuffer.allocate(4).putInt(0, (int) (System.currentTimeMillis() / 1000)), SECTOR_BYTES + index * 4);
+            channel.force(false);
+        }
+        return changed;
+    }
+
+    /**
+     * Find first sectors that are not used by any chunk (including sectors of chunk that is written)
+     *
+     * @return index of first sector, could be at the end of file
+     */
+    private static int findFreeSectors(FileChannel channel, int count) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES);
+        read(channel, header, 0);
+        int fileSectors = (int) ((channel.size() + SECTOR_BYTES - 1) / SECTOR_BYTES);
+        boolean[] used = new boolean[fileSectors];
+        for (int i = 0; i < 1024; i++) {
+            int location = header.getInt(i * 4);
+            int end = Math.min(fileSectors, (location >>> 8) + (location & 0xFF));
+            for (int sector = location >>> 8; sector < end; sector++) {
+                used[sector] = true;
+            }
+        }
+        int start = 2;
+        for (int sector = 2; sector < fileSectors; sector++) {
+            if (used[sector]) {
+                start = sector + 1;
+            } else if (sector - start + 1 == count) {
+                return start;
+            }
+        }
+        return Math.max(start, fileSectors);
+    }
+
+    /**
+     * Read biome ids of chunks from region file. Runs in scanner thread:
+     * pending server saves are flushed and server region files are locked while chunk data is read.
+     *
+     * @param keys - chunk keys (see WMChunk.key)
+     * @return arrays of 256 biome ids, chunks that are not generated or could not be read are skipped
+     */
+    static Map<Long, int[]> readBiomes(World world, int regionX, int regionZ, Collection<Long> keys) {
+        Map<Long, int[]> result = new HashMap<>();
+        File file = getRegionFile(world, regionX, regionZ);
+        Object regionLock = NmsUtil.getRegionFileLock();
+        if (!file.exists() || regionLock == null || !NmsUtil.waitForSaves()) return result;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DataOutputStream skip = new DataOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+            for (long key : keys) {
+                try {
+                    int[] compression = new int[1];
+                    byte[] data;
+                    synchronized (regionLock) {
+                        int location = readInt(channel, ((WMChunk.keyX(key) & 31) + (WMChunk.keyZ(key) & 31) * 32) * 4);
+                        data = readChunk(channel, location, compression);
+                    }
+                    if (data == null) continue;
+                    try (DataInputStream in = openNbt(data, compression[0])) {
+                        new NbtCopier(in, skip, biomes -> {
+                            result.put(key, biomes);
+                            return 0;
+                        }).copy();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Damaged chunk data, chunk is skipped
+                    e.printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Read compressed chunk data
+     *
+     * @param location    - chunk location from region file header
+     * @param compression - array to store compression type
+     * @return compressed data or null if chunk is not generated or data is wrong
+     */
+    private static byte[] readChunk(FileChannel channel, int location, int[] compression) throws IOException {
+        if (location >>> 8 < 2 || (location & 0xFF) == 0) return null;
+        long position = (long) (location >>> 8) * SECTOR_BYTES;
+        int size = (location & 0xFF) * SECTOR_BYTES;
+        ByteBuffer head = ByteBuffer.allocate(5);
+        read(channel, head, position);
+        int length = head.getInt(0);
+        compression[0] = head.get(4);
+        if (length <= 1 || length + 4 > size) return null;
+        if (compression[0] != GZIP && compression[0] != ZLIB) return null;
+        byte[] data = new byte[length - 1];
+        read(channel, ByteBuffer.wrap(data), position + 5);
+        return data;
+    }
+
+    private static DataInputStream openNbt(byte[] data, int compression) throws IOException {
+        InputStream compressed = new ByteArrayInputStream(data);
+        return new DataInputStream(new BufferedInputStream(compression == GZIP ?
+                new GZIPInputStream(compressed) : new InflaterInputStream(compressed)));
+    }
+
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        read(channel, buffer, position);
+        return buffer.getInt(0);
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Change queued columns of biome array
+     *
+     * @return number of changed columns
+     */
+    private int applyColumns(WMChunk wmChunk, int[] biomes) {
+        WMChunk previousChunk = new WMChunk(wmChunk.getWorld(), wmChunk.getX(), wmChunk.getZ());
+        int changed = 0;
+        for (int i = 0; i < 256; i++) {
+            int code = wmChunk.getColumn(i);
+            if (code == WMChunk.NONE) continue;
+            if (filterId >= 0 && biomes[i] != filterId) continue;
+            int id = biomeIds[code - 1];
+            if (biomes[i] == id) continue;
+            if (biomes[i] >= 0 && biomes[i] < idToCode.length && idToCode[biomes[i]] != WMChunk.NONE) {
+                previousChunk.setColumn(i, idToCode[biomes[i]]);
+            }
+            biomes[i] = id;
+            changed++;
+        }
+        lastPrevious = previousChunk;
+        return changed;
+    }
+
+    /**
+     * Copies chunk NBT data tag by tag, Level/Biomes array is passed to handler
+     * (and could be changed by it) on the fly
+     */
+    private static class NbtCopier {
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final ToIntFunction<int[]> biomesHandler;
+        private int changed = -1;
+
+        NbtCopier(DataInputStream in, DataOutputStream out, ToIntFunction<int[]> biomesHandler) {
+            this.in = in;
+            this.out = out;
+            this.biomesHandler = biomesHandler;
+        }
+
+        /**
+         * @return number of changed columns or -1 if biome array was not found
+         */
+        int copy() throws IOException {
+            byte type = in.readByte();
+            if (type != 10) return -1;
+            out.writeByte(type);
+            String name = in.readUTF();
+            out.writeUTF(name);
+            copyCompound(name, 0);
+            out.flush();
+            return changed;
+        }
+
+        private void copyCompound(String name, int depth) throws IOException {
+            while (true) {
+                byte type = in.readByte();
+                out.writeByte(type);
+                if (type == 0) return;
+                String tagName = in.readUTF();
+                out.writeUTF(tagName);
+                if (type == 11 && depth == 1 && name.equals("Level") && tagName.equals("Biomes")) {
+                    copyBiomes();
+                } else {
+                    copyPayload(type, tagName, depth + 1);
+                }
+            }
+        }
+
+        private void copyBiomes() throws IOException {
+            int length = in.readInt();
+            int[] biomes = new int[length];
+            for (int i = 0; i < length; i++) {
+                biomes[i] = in.readInt();
+            }
+            if (length == 256) changed = biomesHandler.applyAsInt(biomes);
+            out.writeInt(length);
+            for (int biome : biomes) {
+                out.writeInt(biome);
+            }
+        }
+
+        private void copyPayload(byte type, String name, int depth) throws IOException {
+            switch (type) {
+                case 1:
+                    out.writeByte(in.readByte());
+                    break;
+                case 2:
+                    out.writeShort(in.readShort());
+                    break;
+                case 3:
+                case 5:
+                    out.writeInt(in.readInt());
+                    break;
+                case 4:
+                case 6:
+                    out.writeLong(in.readLong());
+                    break;
+                case 7:
+                    copyArray(1);
+                    break;
+                case 8:
+                    out.writeUTF(in.readUTF());
+                    break;
+                case 9:
+                    byte elementType = in.readByte();
+                    out.writeByte(elementType);
+                    int length = in.readInt();
+                    out.writeInt(length);
+                    for (int i = 0; i < length; i++) {
+                        copyPayload(elementType, "", depth + 1);
+                    }
+                    break;
+                case 10:
+                    copyCompound(name, depth);
+                    break;
+                case 11:
+                    copyArray(4);
+                    break;
+                case 12:
+                    copyArray(8);
+                    break;
+                default:
+                    throw new IOException("Unknown NBT tag type: " + type);
+            }
+        }
+
+        private void copyArray(int elementSize) throws IOException {
+            int length = in.readInt();
+            out.writeInt(length);
+            byte[] buffer = new byte[8192];
+            long left = (long) length * elementSize;
+            while (left > 0) {
+                int count = (int) Math.min(buffer.length, left);
+                in.readFully(buffer, 0, count);
+                out.write(buffer, 0, count);
+                left -= count;
+            }
+        }
+    }
+}
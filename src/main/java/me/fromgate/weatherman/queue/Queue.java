@@ -23,16 +23,26 @@
 package me.fromgate.weatherman.queue;
 
 import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.util.Cfg;
+import me.fromgate.weatherman.util.NmsUtil;
 import me.fromgate.weatherman.util.lang.M;
 import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
 import org.bukkit.block.Biome;
 import org.bukkit.command.CommandSender;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 //import Repopulator;
@@ -44,94 +54,458 @@ public class Queue {
     // Config
     private boolean active = false;
     private boolean finished = false;
-    private int chunksPerTick = 32;
     private CommandSender sender;
+    private World world;
     private boolean setBiomeNotRepopulate = true;
     private Biome filterBiome = null;
+    private FloodFill floodFill = null;
+    private boolean offline = false;
+    private HistoryEntry history = null;
+    private int historyMode = History.NORMAL;
+    private int offlineRegions = 0;
 
     //Staticstic
     long startTime = 0L;
+    long lastReportTime = 0L;
     int chunkNum = 0;
     int blockNum = 0;
+    int processedNum = 0;
 
 
-    List<BiomeBlock> queue = new ArrayList<>();
-    HashMap<WMChunk, Set<BiomeBlock>> queueSource = new HashMap<>();
+    Map<Long, WMChunk> chunks = new LinkedHashMap<>();
+    // Chunks filtered by scanner threads
+    ConcurrentLinkedQueue<WMChunk> filtered = new ConcurrentLinkedQueue<>();
+    int filtering = 0;
+    // Chunks pinned by ChunkPreloader
+    Set<Long> pinned = new HashSet<>();
+    // Chunks taken from queue but not processed yet (biome filter, region file writers)
+    Set<Long> inFlight = new HashSet<>();
+    // Older queues that must process shared chunks before this queue (see mergeNewer)
+    List<Queue> waitFor = new ArrayList<>();
+    // Journal (see JobJournal)
+    long journalId = -1;
+    // Queue is stored in journal (bulk queues without flood fill, undo and redo are not journaled)
+    boolean journaled = false;
+    int journalRecords = 0;
+    BitSet journalDone = new BitSet();
 
-    public Queue(CommandSender sender, boolean setBiomeNotRepopulate) {
+    public Queue(CommandSender sender, World world, boolean setBiomeNotRepopulate) {
         this.sender = sender;
+        this.world = world;
         this.setBiomeNotRepopulate = setBiomeNotRepopulate;
     }
 
-    public Queue(CommandSender sender, List<BiomeBlock> biomeBlocks, Biome filterBiome) {
-        this(sender, biomeBlocks, true, filterBiome);
+    public Queue(CommandSender sender, World world, boolean setBiomeNotRepopulate, Biome filterBiome) {
+        this(sender, world, setBiomeNotRepopulate);
+        this.filterBiome = filterBiome;
     }
 
-    public Queue(CommandSender sender, List<BiomeBlock> biomeBlocks, boolean setBiomeNotRepopulate, Biome filterBiome) {
-        this(sender, setBiomeNotRepopulate);
-        this.filterBiome = filterBiome;
-        addBiomeBlock(biomeBlocks);
+    /**
+     * Restore queue from journal
+     */
+    Queue(CommandSender sender, World world, boolean setBiomeNotRepopulate, Biome filterBiome,
+          long journalId, int journalRecords, BitSet journalDone, Collection<WMChunk> chunks) {
+        this(sender, world, setBiomeNotRepopulate, filterBiome);
+        this.journalId = journalId;
+        this.journaled = true;
+        this.journalRecords = journalRecords;
+        this.journalDone = journalDone;
+        for (WMChunk wmChunk : chunks) {
+            this.chunks.put(wmChunk.getKey(), wmChunk);
+        }
+    }
 
+    /**
+     * Add chunk columns to queue, columns of added chunk have priority
+     */
+    void addChunk(WMChunk wmChunk) {
+        WMChunk queued = this.chunks.get(wmChunk.getKey());
+        if (queued == null) this.chunks.put(wmChunk.getKey(), wmChunk);
+        else queued.merge(wmChunk);
     }
 
-    public void addBiomeBlock(BiomeBlock biomeBlock) {
-        if (!this.queueSource.containsKey(biomeBlock.wmChunk))
-            this.queueSource.put(biomeBlock.wmChunk, new HashSet<>());
-        this.queueSource.get(biomeBlock.wmChunk).add(biomeBlock);
+    void setHistoryMode(int historyMode) {
+        this.historyMode = historyMode;
     }
 
-    public void addBiomeBlock(List<BiomeBlock> biomeBlocks) {
-        for (BiomeBlock biomeBlock : biomeBlocks) {
-            addBiomeBlock(biomeBlock);
+    public void addColumn(int x, int z, Biome biome) {
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+        long key = WMChunk.key(chunkX, chunkZ);
+        WMChunk wmChunk = this.chunks.get(key);
+        if (wmChunk == null) {
+            wmChunk = new WMChunk(this.world, chunkX, chunkZ);
+            this.chunks.put(key, wmChunk);
+            if (active) chunkNum++;
         }
+        wmChunk.setColumn(x, z, biome);
     }
 
+    public boolean isEmpty() {
+        return this.chunks.isEmpty();
+    }
 
-    public void processQueue() {
-        if (finished) return;
-        if (!active) {
-            active = true;
-            startTime = System.currentTimeMillis();
-            chunkNum = queueSource.size();
-            for (WMChunk chunk : queueSource.keySet()) {
-                blockNum += queueSource.get(chunk).size();
+    /**
+     * Chunks found by flood fill are added to the queue while the area is scanned
+     */
+    public void setFloodFill(FloodFill floodFill) {
+        this.floodFill = floodFill;
+    }
+
+    /**
+     * Biomes of unloaded chunks will be written directly to region files
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * All chunks are processed and there is no flood fill or biome filter in progress
+     */
+    public boolean isDone() {
+        return floodFill == null && filtering == 0 && offlineRegions == 0 && chunks.isEmpty();
+    }
+
+    /**
+     * Load next chunks, continue flood fill and send next chunks to filter. Called every tick.
+     */
+    public void scan(int maxColumns) {
+        if (!active) return;
+        preloadNextChunks();
+        if (floodFill != null) {
+            floodFill.step(maxColumns);
+            if (floodFill.isFinished()) {
+                if (floodFill.isLimitReached() && sender != null) {
+                    M.MSG_FLOODFILLTOOLARGE.print(sender, Cfg.floodFillMaxColumns);
+                }
+                floodFill.release();
+                floodFill = null;
+            }
+        }
+        if (filterBiome != null) filterNextChunks();
+    }
+
+    /**
+     * Pin (and load) chunks that will be processed soon
+     */
+    private void preloadNextChunks() {
+        int count = 0;
+        for (WMChunk wmChunk : this.chunks.values()) {
+            if (count++ >= Cfg.queuePreloadChunks) break;
+            long key = wmChunk.getKey();
+            if (pinned.contains(key)) continue;
+            if (!ChunkPreloader.pin(world, wmChunk.getX(), wmChunk.getZ())) break;
+            pinned.add(key);
+        }
+    }
+
+    /**
+     * Get next chunk that is already loaded
+     */
+    private WMChunk pollLoadedChunk() {
+        Iterator<WMChunk> iterator = this.chunks.values().iterator();
+        for (int i = 0; i < Cfg.queuePreloadChunks && iterator.hasNext(); i++) {
+            WMChunk wmChunk = iterator.next();
+            if (world.isChunkLoaded(wmChunk.getX(), wmChunk.getZ()) && !isWaiting(wmChunk.getKey())) {
+                iterator.remove();
+                return wmChunk;
             }
         }
+        return null;
+    }
 
-        Set<WMChunk> chunksToProcess = new HashSet<>();
-        for (WMChunk wmChunk : queueSource.keySet()) {
-            chunksToProcess.add(wmChunk);
-            for (BiomeBlock biomeBlock : queueSource.get(wmChunk)) {
-                if ((this.filterBiome != null) && (!biomeBlock.getLocation().getBlock().getBiome().equals(this.filterBiome)))
-                    continue;
-                biomeBlock.processBiomeBlock(this.setBiomeNotRepopulate); //////////////////
+    /**
+     * Chunk is still pending in older queue
+     */
+    private boolean isWaiting(long key) {
+        if (waitFor.isEmpty()) return false;
+        Iterator<Queue> iterator = waitFor.iterator();
+        while (iterator.hasNext()) {
+            Queue older = iterator.next();
+            if (older.finished) {
+                iterator.remove();
+                continue;
             }
-            if (chunksToProcess.size() >= this.chunksPerTick) break;
+            if (older.chunks.containsKey(key) || older.inFlight.contains(key)) return true;
         }
-        for (WMChunk wmChunk : chunksToProcess) {
-            wmChunk.processChunk(this.setBiomeNotRepopulate);
-            this.queueSource.remove(wmChunk);
+        return false;
+    }
+
+    private void release(WMChunk wmChunk) {
+        if (pinned.remove(wmChunk.getKey())) ChunkPreloader.release(world, wmChunk.getKey());
+    }
+
+    /**
+     * Take snapshots of next chunks and check their biomes in scanner threads
+     */
+    private void filterNextChunks() {
+        int maxFiltering = Cfg.scanChunksPerTick * 2;
+        for (int i = 0; i < Cfg.scanChunksPerTick && filtering < maxFiltering; i++) {
+            WMChunk wmChunk = pollLoadedChunk();
+            if (wmChunk == null) break;
+            inFlight.add(wmChunk.getKey());
+            ChunkSnapshot snapshot = wmChunk.getChunk().getChunkSnapshot(false, true, false);
+            Biome biome = this.filterBiome;
+            filtering++;
+            ScanPool.submit(() -> {
+                try {
+                    wmChunk.filter(snapshot, biome);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                } finally {
+                    filtered.add(wmChunk);
+                }
+            });
         }
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
 
-        if (!chunksToProcess.isEmpty()) {
-            Bukkit.getScheduler().runTaskLater(WeatherMan.getPlugin(), this::processQueue, 3);
+    /**
+     * Journal stores only chunks and biomes: flood fill frontier and undo/redo mode could not be restored
+     */
+    private boolean canJournal() {
+        return Cfg.queueJournal && !isInteractive() && floodFill == null && historyMode == History.NORMAL;
+    }
+
+    private boolean recordsHistory() {
+        return setBiomeNotRepopulate && sender != null && Cfg.historySize > 0;
+    }
+
+    /**
+     * Small queues (wand, redstone signs, small commands) are processed before bulk ones
+     */
+    public boolean isInteractive() {
+        return (active ? chunkNum : chunks.size()) <= Cfg.queueInteractiveChunks;
+    }
 
+
+    public void start() {
+        if (active || finished) return;
+        active = true;
+        startTime = System.currentTimeMillis();
+        lastReportTime = startTime;
+        chunkNum = chunks.size();
+        if (recordsHistory()) history = new HistoryEntry(world.getUID());
+        // Restored queues are already journaled
+        if (!journaled) journaled = canJournal();
+        if (journaled) JobJournal.checkpoint(this);
+        if (offline && setBiomeNotRepopulate) startOffline();
+    }
+
+    /**
+     * Send unloaded chunks to region file writers
+     */
+    private void startOffline() {
+        int[] biomeIds = NmsUtil.getBiomeIds();
+        if (biomeIds == null || !NmsUtil.isRegionAccessSupported()) {
+            if (sender != null) M.MSG_OFFLINEUNSUPPORTED.print(sender);
+            return;
+        }
+        Map<Long, List<WMChunk>> regions = new HashMap<>();
+        Iterator<WMChunk> iterator = this.chunks.values().iterator();
+        while (iterator.hasNext()) {
+            WMChunk wmChunk = iterator.next();
+            if (world.isChunkLoaded(wmChunk.getX(), wmChunk.getZ()) || wmChunk.hasOriginal()) continue;
+            if (isWaiting(wmChunk.getKey())) continue;
+            iterator.remove();
+            inFlight.add(wmChunk.getKey());
+            regions.computeIfAbsent(WMChunk.key(wmChunk.getX() >> 5, wmChunk.getZ() >> 5), k -> new ArrayList<>()).add(wmChunk);
+        }
+        if (regions.isEmpty()) return;
+        for (Map.Entry<Long, List<WMChunk>> region : regions.entrySet()) {
+            OfflineBiomeWriter writer = new OfflineBiomeWriter(world, WMChunk.keyX(region.getKey()), WMChunk.keyZ(region.getKey()),
+                    region.getValue(), biomeIds, filterBiome);
+            offlineRegions++;
+            ScanPool.submit(() -> {
+                writer.write();
+                Bukkit.getScheduler().runTask(WeatherMan.getPlugin(), () -> offlineFinished(writer));
+            });
+        }
+    }
+
+    private void offlineFinished(OfflineBiomeWriter writer) {
+        writer.close();
+        offlineRegions--;
+        processedNum += writer.written.size() + writer.unchanged;
+        blockNum += writer.columns;
+        for (WMChunk wmChunk : writer.done) {
+            setDone(wmChunk);
+            inFlight.remove(wmChunk.getKey());
+        }
+        if (history != null) {
+            for (WMChunk previous : writer.previous) {
+                history.add(previous);
+            }
+        }
+        for (WMChunk wmChunk : writer.written) {
+            // Chunk was loaded while region file was written (server could save it back later), so biomes are set once again
+            if (!writer.loaded.contains(wmChunk.getKey())) continue;
+            chunkNum++;
+            wmChunk.journalDirty = true;
+            requeue(wmChunk);
+        }
+        for (WMChunk wmChunk : writer.live) {
+            inFlight.remove(wmChunk.getKey());
+            requeue(wmChunk);
+        }
+    }
+
+    /**
+     * Return chunk to queue, columns added to queue later have priority
+     */
+    private void requeue(WMChunk wmChunk) {
+        WMChunk queued = this.chunks.get(wmChunk.getKey());
+        if (queued != null) {
+            wmChunk.merge(queued);
+            setDone(queued);
+        }
+        this.chunks.put(wmChunk.getKey(), wmChunk);
+    }
+
+    /**
+     * Process next queued chunk
+     *
+     * @return false if there is no loaded chunk ready to process
+     */
+    public boolean processNextChunk() {
+        if (finished) return false;
+        WMChunk wmChunk;
+        if (filterBiome != null) {
+            wmChunk = filtered.poll();
+            if (wmChunk == null) return false;
+            filtering--;
+            inFlight.remove(wmChunk.getKey());
         } else {
-            this.finished = true;
-            this.active = false;
-            if (sender != null) {
-                long time = System.currentTimeMillis() - this.startTime;
-                float seconds = ((float) time) / 1000;
-                int minutes = (int) seconds / 60;
-                String timeStr = (minutes > 0) ? M.MINSEC.getText(minutes, (int) seconds) :
-                        M.SEC.getText(((float) Math.round(seconds * 1000 / 1000)) / 1000);
-                if (this.setBiomeNotRepopulate)
-                    M.MSG_QUEUEBIOMEFINISH.print(sender, timeStr, this.chunkNum, this.blockNum);
-                else
-                    M.MSG_QUEUEPOPULATEFINISH.print(sender, timeStr, this.chunkNum, this.blockNum);
-                QueueManager.restartQueues();
+            wmChunk = pollLoadedChunk();
+            if (wmChunk == null) return false;
+        }
+        processedNum++;
+        if (!wmChunk.isEmpty()) {
+            WMChunk previous = history == null ? null : new WMChunk(world, wmChunk.getX(), wmChunk.getZ());
+            int changed = wmChunk.processColumns(this.setBiomeNotRepopulate, previous);
+            blockNum += changed;
+            if (changed > 0) {
+                wmChunk.processChunk(this.setBiomeNotRepopulate);
+                if (history != null) history.add(previous);
             }
         }
+        release(wmChunk);
+        setDone(wmChunk);
+        return true;
+    }
+
+    private void setDone(WMChunk wmChunk) {
+        if (wmChunk.journalIndex >= 0) journalDone.set(wmChunk.journalIndex);
+    }
+
+    /**
+     * Prepare journal checkpoint: new and changed chunks waiting in queue and bitmap of processed chunks
+     *
+     * @return checkpoint or null if queue is finished or not journaled
+     */
+    JobJournal.Checkpoint checkpoint() {
+        // Queues that are not started yet are journaled on shutdown
+        if (finished || !(journaled || !active && canJournal())) return null;
+        JobJournal.Checkpoint checkpoint = new JobJournal.Checkpoint();
+        checkpoint.create = journalId < 0;
+        if (checkpoint.create) journalId = JobJournal.nextId();
+        checkpoint.id = journalId;
+        checkpoint.worldId = world.getUID();
+        checkpoint.setBiome = setBiomeNotRepopulate;
+        checkpoint.filterBiome = filterBiome == null ? "" : filterBiome.name();
+        for (WMChunk wmChunk : chunks.values()) {
+            if (wmChunk.journalIndex >= 0 && !wmChunk.journalDirty) continue;
+            setDone(wmChunk);
+            wmChunk.journalIndex = journalRecords++;
+            wmChunk.journalDirty = false;
+            checkpoint.records.add(wmChunk.copy());
+        }
+        checkpoint.done = (BitSet) journalDone.clone();
+        return checkpoint;
+    }
+
+    /**
+     * Take pending columns of newer queue that overlap chunks pending in this queue.
+     * Columns are moved to this queue when both queues are processed in the same way
+     * and changes are not recorded to undo history,
+     * otherwise overlapped columns are removed from this queue (newer queue wins).
+     * If result of newer queue depends on current biomes (biome filter, flood fill)
+     * or one of queues repopulates chunks, newer queue waits until this queue processes shared chunks.
+     * Newer queue must not be started yet.
+     */
+    void mergeNewer(Queue newer) {
+        if (finished || newer.world != this.world) return;
+        if (!setBiomeNotRepopulate || !newer.setBiomeNotRepopulate || newer.filterBiome != null || newer.floodFill != null) {
+            newer.waitFor.add(this);
+            return;
+        }
+        // Columns are not moved when changes are recorded to undo history (every command has its own history entry)
+        boolean moveColumns = filterBiome == null && (!newer.isInteractive() || isInteractive())
+                && newer.sender == this.sender && !this.recordsHistory() && !newer.recordsHistory();
+        Iterator<WMChunk> iterator = newer.chunks.values().iterator();
+        while (iterator.hasNext()) {
+            WMChunk newerChunk = iterator.next();
+            // Chunk is being filtered or written to region file by this queue
+            if (inFlight.contains(newerChunk.getKey()) && !newer.waitFor.contains(this)) newer.waitFor.add(this);
+            WMChunk wmChunk = this.chunks.get(newerChunk.getKey());
+            if (wmChunk == null) continue;
+            if (moveColumns) {
+                wmChunk.merge(newerChunk);
+                iterator.remove();
+            } else {
+                wmChunk.removeColumns(newerChunk);
+                if (wmChunk.isEmpty()) {
+                    this.chunks.remove(wmChunk.getKey());
+                    release(wmChunk);
+                    setDone(wmChunk);
+                    if (active) chunkNum--;
+                }
+            }
+        }
+    }
+
+    public void reportProgress() {
+        if (sender == null || !active || Cfg.queueProgressInterval <= 0) return;
+        long now = System.currentTimeMillis();
+        if (now - lastReportTime < Cfg.queueProgressInterval * 1000L) return;
+        lastReportTime = now;
+        if (floodFill != null) {
+            M.MSG_FLOODFILLPROGRESS.print(sender, floodFill.getColumns(), processedNum, chunkNum);
+            return;
+        }
+        if (processedNum == 0 || chunkNum == 0) return;
+        long elapsed = now - startTime;
+        long eta = elapsed * (chunkNum - processedNum) / processedNum;
+        M.MSG_QUEUEPROGRESS.print(sender, processedNum, chunkNum, processedNum * 100 / chunkNum, timeToString(eta));
+    }
+
+    public void finish() {
+        if (finished) return;
+        this.finished = true;
+        this.active = false;
+        for (long key : pinned) {
+            ChunkPreloader.release(world, key);
+        }
+        pinned.clear();
+        if (floodFill != null) floodFill.release();
+        if (journalId >= 0) JobJournal.delete(journalId);
+        if (history != null && !history.isEmpty()) History.add(sender.getName(), history, historyMode);
+        if (sender != null) {
+            String timeStr = timeToString(System.currentTimeMillis() - this.startTime);
+            if (this.setBiomeNotRepopulate)
+                M.MSG_QUEUEBIOMEFINISH.print(sender, timeStr, this.chunkNum, this.blockNum);
+            else
+                M.MSG_QUEUEPOPULATEFINISH.print(sender, timeStr, this.chunkNum, this.blockNum);
+        }
+    }
+
+    private static String timeToString(long time) {
+        float seconds = ((float) time) / 1000;
+        int minutes = (int) seconds / 60;
+        return (minutes > 0) ? M.MINSEC.getText(minutes, (int) seconds % 60) : M.SEC.getText(seconds);
     }
 
 
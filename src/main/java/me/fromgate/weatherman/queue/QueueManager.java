@@ -23,9 +23,11 @@
 package me.fromgate.weatherman.queue;
 
 import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.util.Cfg;
 import me.fromgate.weatherman.util.WMWorldEdit;
 import me.fromgate.weatherman.util.lang.M;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Biome;
@@ -38,32 +40,38 @@ import java.util.List;
 public class QueueManager {
 
     private static List<Queue> queues = new ArrayList<>();
+    private static QueueTask queueTask = null;
 
     public static boolean addQueue(Queue queue) {
+        for (Queue pending : queues) {
+            pending.mergeNewer(queue);
+        }
         queues.add(queue);
         restartQueues();
         return true;
     }
 
-    public static boolean addQueue(CommandSender sender, List<BiomeBlock> blocks, boolean biomeOrPopulate, Biome filterBiome) {
-        if (blocks == null) return false;
-        if (blocks.isEmpty()) return false;
-        Queue queue = new Queue(sender, blocks, biomeOrPopulate, filterBiome);
-        return addQueue(queue);
+    public static boolean addQueue(CommandSender sender, Location loc1, Location loc2, Biome biome, boolean biomeOrPopulate, Biome filterBiome) {
+        return addQueue(sender, loc1, loc2, biome, biomeOrPopulate, filterBiome, false);
     }
 
-    public static boolean addQueue(CommandSender sender, Location loc1, Location loc2, Biome biome, boolean biomeOrPopulate, Biome filterBiome) {
+    public static boolean addQueue(CommandSender sender, Location loc1, Location loc2, Biome biome, boolean biomeOrPopulate, Biome filterBiome, boolean offline) {
         if (loc1 == null || loc2 == null) {
             return M.MSG_WRONGLOCATION.print(sender);
         }
-        List<BiomeBlock> blocks = new ArrayList<>();
+        Queue queue = new Queue(sender, loc1.getWorld(), biomeOrPopulate, filterBiome);
+        queue.setOffline(offline);
         for (int x = Math.min(loc1.getBlockX(), loc2.getBlockX()); x <= Math.max(loc1.getBlockX(), loc2.getBlockX()); x++)
             for (int z = Math.min(loc1.getBlockZ(), loc2.getBlockZ()); z <= Math.max(loc1.getBlockZ(), loc2.getBlockZ()); z++)
-                blocks.add(new BiomeBlock(loc1.getWorld(), x, z, biome));
-        return addQueue(sender, blocks, biomeOrPopulate, filterBiome);
+                queue.addColumn(x, z, biome);
+        return addQueue(queue);
     }
 
     public static boolean addQueueSelection(CommandSender sender, Biome biome, boolean biomeOrPopulate, Biome filterBiome) {
+        return addQueueSelection(sender, biome, biomeOrPopulate, filterBiome, false);
+    }
+
+    public static boolean addQueueSelection(CommandSender sender, Biome biome, boolean biomeOrPopulate, Biome filterBiome, boolean offline) {
         Player player = null;
         if (sender instanceof Player) player = (Player) sender;
         if (player == null) {
@@ -77,11 +85,15 @@ public class QueueManager {
         }
         Location loc1 = WMWorldEdit.getSelectionMinPoint(player);
         Location loc2 = WMWorldEdit.getSelectionMaxPoint(player);
-        return addQueue(sender, loc1, loc2, biome, biomeOrPopulate, filterBiome);
+        return addQueue(sender, loc1, loc2, biome, biomeOrPopulate, filterBiome, offline);
     }
 
 
     public static boolean addQueueRegion(CommandSender sender, String region, Biome biome, boolean biomeOrPopulate, Biome filterBiome) {
+        return addQueueRegion(sender, region, biome, biomeOrPopulate, filterBiome, false);
+    }
+
+    public static boolean addQueueRegion(CommandSender sender, String region, Biome biome, boolean biomeOrPopulate, Biome filterBiome, boolean offline) {
         if (!WMWorldEdit.isWG()) {
             return M.WG_NOTFOUND.print(sender);
         }
@@ -94,7 +106,7 @@ public class QueueManager {
             if (WMWorldEdit.isRegionExists(w, region)) {
                 Location loc1 = WMWorldEdit.getMinPoint(w, region);
                 Location loc2 = WMWorldEdit.getMaxPoint(w, region);
-                if (addQueue(sender, loc1, loc2, biome, biomeOrPopulate, filterBiome)) rgcount++;
+                if (addQueue(sender, loc1, loc2, biome, biomeOrPopulate, filterBiome, offline)) rgcount++;
             }
         }
         return rgcount != 0 || M.WG_UNKNOWNREGION.print(sender);
@@ -105,32 +117,68 @@ public class QueueManager {
         if (loc == null) {
             return M.MSG_WRONGLOCATION.print(sender);
         }
-        List<BiomeBlock> blocks = new ArrayList<>();
-        if (radius <= 0) blocks.add(new BiomeBlock(loc, biome));
+        Queue queue = new Queue(sender, loc.getWorld(), biomeOrPopulate, filterBiome);
+        int x = loc.getBlockX();
+        int z = loc.getBlockZ();
+        if (radius <= 0) queue.addColumn(x, z, biome);
         else for (int i = 0; i <= radius; i++) {
             int mj = (int) Math.sqrt(radius * radius - i * i);
             for (int j = 0; j <= mj; j++) {
-                blocks.add(new BiomeBlock(loc.getBlock().getLocation().add(i, 0, j), biome));
-                blocks.add(new BiomeBlock(loc.getBlock().getLocation().add(-i, 0, j), biome));
-                blocks.add(new BiomeBlock(loc.getBlock().getLocation().add(-i, 0, -j), biome));
-                blocks.add(new BiomeBlock(loc.getBlock().getLocation().add(i, 0, -j), biome));
+                queue.addColumn(x + i, z + j, biome);
+                queue.addColumn(x - i, z + j, biome);
+                queue.addColumn(x - i, z - j, biome);
+                queue.addColumn(x + i, z - j, biome);
             }
         }
-        return addQueue(sender, blocks, biomeOrPopulate, filterBiome);
+        return addQueue(queue);
     }
 
 
     public static void restartQueues() {
-        Bukkit.getScheduler().runTaskLater(WeatherMan.getPlugin(), () -> {
-            if (queues.isEmpty()) return;
-            boolean started = false;
-            for (int i = queues.size() - 1; i >= 0; i--) {
-                if (queues.get(i).isActive()) started = true;
-                if (queues.get(i).isFinished()) queues.remove(i);
-            }
-            if (!started && queues.size() > 0) queues.get(0).processQueue();
-        }, 3);
+        if (queueTask != null) return;
+        queueTask = new QueueTask();
+        queueTask.runTaskTimer(WeatherMan.getPlugin(), 1, 1);
     }
 
+    static List<Queue> getQueues() {
+        queues.removeIf(Queue::isFinished);
+        return new ArrayList<>(queues);
+    }
+
+    static void stopQueueTask() {
+        if (queueTask == null) return;
+        queueTask.cancel();
+        queueTask = null;
+    }
+
+    /**
+     * Restore queues that were not finished before server stop
+     */
+    public static void resumeQueues() {
+        if (!Cfg.queueJournal) return;
+        for (Queue queue : JobJournal.load()) {
+            M.MSG_QUEUERESUMED.print(Bukkit.getConsoleSender(), queue.getWorld().getName(), queue.chunks.size());
+            addQueue(queue);
+        }
+    }
+
+    /**
+     * Chunk loaded by server (region files of unloaded chunks could be written by queues)
+     */
+    public static void chunkLoaded(Chunk chunk) {
+        OfflineBiomeWriter.chunkLoaded(chunk);
+    }
+
+    /**
+     * Stop queue processing and scanner threads (plugin disable)
+     */
+    public static void shutdown() {
+        stopQueueTask();
+        ScanPool.stop();
+        if (Cfg.queueJournal) JobJournal.checkpoint(getQueues());
+        JobJournal.stop();
+        History.stop();
+        ChunkPreloader.clear();
+    }
 
 }
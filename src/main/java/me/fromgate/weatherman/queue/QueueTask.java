@@ -0,0 +1,167 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.queue;
+
+import me.fromgate.weatherman.util.Cfg;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs every tick and spends a limited time budget on the biome queues.
+ * Budget is shared between worlds, inside every world small (interactive)
+ * queues are processed first and then bulk queues get chunks in round-robin order.
+ * Average chunk processing time is measured to avoid exceeding the budget,
+ * and budget is reduced while server tick takes noticeably longer than target value
+ * (time between task runs is never below 50 ms, so small deviations are ignored).
+ * Before processing, queues take chunk snapshots for scanner threads
+ * (flood fill and biome filter, see ScanPool) and pin chunks that will be
+ * processed soon (see ChunkPreloader), queues process only loaded chunks.
+ */
+public class QueueTask extends BukkitRunnable {
+
+    private static final long TICK_NANOS = 50_000_000L;
+    private static final long MIN_BUDGET_NANOS = 1_000_000L;
+    // Tick is slow if it is longer than target by this margin, budget grows back when it is below target + RECOVER_MARGIN
+    private static final long BACKOFF_MARGIN_NANOS = 5_000_000L;
+    private static final long RECOVER_MARGIN_NANOS = 2_000_000L;
+    // Ticks to wait after budget reduction, so average tick time could reflect it
+    private static final int BACKOFF_COOLDOWN = 5;
+
+    private long avgChunkNanos = 1_000_000L;
+    private long avgTickNanos = TICK_NANOS;
+    private long lastTickStart = 0L;
+    private long budgetNanos;
+    private int worldShift = 0;
+    private boolean processedThisTick;
+    private int ticks = 0;
+    private int cooldown = 0;
+
+    public QueueTask() {
+        this.budgetNanos = maxBudgetNanos();
+    }
+
+    @Override
+    public void run() {
+        long tickStart = System.nanoTime();
+        if (lastTickStart > 0) {
+            avgTickNanos = (avgTickNanos * 3 + (tickStart - lastTickStart)) / 4;
+        }
+        lastTickStart = tickStart;
+
+        List<Queue> queues = QueueManager.getQueues();
+        if (queues.isEmpty()) {
+            QueueManager.stopQueueTask();
+            return;
+        }
+        updateBudget();
+        ChunkPreloader.newTick();
+
+        Map<World, List<Queue>> worldQueues = new LinkedHashMap<>();
+        for (Queue queue : queues) {
+            queue.start();
+            queue.scan(Cfg.floodFillColumnsPerTick);
+            worldQueues.computeIfAbsent(queue.getWorld(), w -> new ArrayList<>()).add(queue);
+        }
+        List<World> worlds = new ArrayList<>(worldQueues.keySet());
+        Collections.rotate(worlds, worldShift++ % worlds.size());
+
+        long deadline = tickStart + budgetNanos;
+        processedThisTick = false;
+        int worldsLeft = worlds.size();
+        for (World world : worlds) {
+            long now = System.nanoTime();
+            if (now >= deadline && processedThisTick) break;
+            long worldDeadline = now + Math.max(0, deadline - now) / worldsLeft;
+            processWorld(worldQueues.get(world), worldDeadline);
+            worldsLeft--;
+        }
+
+        for (Queue queue : queues) {
+            queue.reportProgress();
+        }
+        if (Cfg.queueJournal && ++ticks % (Cfg.queueJournalInterval * 20) == 0) {
+            JobJournal.checkpoint(queues);
+        }
+    }
+
+    private void processWorld(List<Queue> queues, long deadline) {
+        List<Queue> interactive = new ArrayList<>();
+        List<Queue> bulk = new ArrayList<>();
+        for (Queue queue : queues) {
+            if (queue.isInteractive()) interactive.add(queue);
+            else bulk.add(queue);
+        }
+        if (processRoundRobin(interactive, deadline)) {
+            processRoundRobin(bulk, deadline);
+        }
+    }
+
+    /**
+     * Process queues one chunk per queue in turn.
+     *
+     * @return true if all given queues are processed and there is time left
+     */
+    private boolean processRoundRobin(List<Queue> queues, long deadline) {
+        while (!queues.isEmpty()) {
+            Iterator<Queue> iterator = queues.iterator();
+            while (iterator.hasNext()) {
+                Queue queue = iterator.next();
+                long chunkStart = System.nanoTime();
+                if (processedThisTick && chunkStart + avgChunkNanos > deadline) return false;
+                if (!queue.processNextChunk()) {
+                    if (queue.isDone()) queue.finish();
+                    iterator.remove();
+                    continue;
+                }
+                processedThisTick = true;
+                avgChunkNanos = (avgChunkNanos * 7 + (System.nanoTime() - chunkStart)) / 8;
+            }
+        }
+        return true;
+    }
+
+    private void updateBudget() {
+        long maxBudget = maxBudgetNanos();
+        long targetNanos = Cfg.queueTargetMspt * 1_000_000L;
+        budgetNanos = Math.min(budgetNanos, maxBudget);
+        if (cooldown > 0) cooldown--;
+        if (avgTickNanos > targetNanos + BACKOFF_MARGIN_NANOS) {
+            if (cooldown > 0) return;
+            budgetNanos = Math.max(MIN_BUDGET_NANOS, budgetNanos / 2);
+            cooldown = BACKOFF_COOLDOWN;
+        } else if (avgTickNanos < targetNanos + RECOVER_MARGIN_NANOS) {
+            budgetNanos = Math.min(maxBudget, budgetNanos + budgetNanos / 4 + 1);
+        }
+    }
+
+    private static long maxBudgetNanos() {
+        return Math.max(MIN_BUDGET_NANOS, Cfg.queueTickBudget * 1_000_000L);
+    }
+}
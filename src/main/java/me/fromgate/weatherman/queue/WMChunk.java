@@ -24,28 +24,123 @@ package me.fromgate.weatherman.queue;
 
 import me.fromgate.weatherman.WeatherMan;
 import me.fromgate.weatherman.util.NmsUtil;
+import me.fromgate.weatherman.util.Repopulator;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.World;
+import org.bukkit.block.Biome;
 import org.bukkit.entity.Entity;
 
+import java.util.Arrays;
 
+/**
+ * Queued columns of a single chunk. Every column is stored as one byte
+ * (0 - column is not queued, 255 - original biome, other - biome ordinal + 1),
+ * so chunk is keyed and processed without any per-column objects.
+ */
 public class WMChunk {
+    public static final int NONE = 0;
+    public static final int ORIGINAL = 0xFF;
+
+    private static final Biome[] BIOMES = Biome.values();
+
     World world;
     int x;
     int z;
+    byte[] columns;
+    int size;
+    // Index of journal record, changed chunk is written to journal once again
+    int journalIndex = -1;
+    boolean journalDirty = true;
 
 
     public WMChunk(Chunk ch) {
-        this.world = ch.getWorld();
-        this.x = ch.getX();
-        this.z = ch.getZ();
+        this(ch.getWorld(), ch.getX(), ch.getZ());
     }
 
-    public WMChunk(World world, int bx, int bz, boolean setBiomeOrDepopulate) {
+    public WMChunk(World world, int chunkX, int chunkZ) {
         this.world = world;
-        this.x = bx >> 4;
-        this.z = bz >> 4;
+        this.x = chunkX;
+        this.z = chunkZ;
+        this.columns = new byte[256];
+        this.size = 0;
+    }
+
+    public static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int keyZ(long key) {
+        return (int) key;
+    }
+
+    public static int encode(Biome biome) {
+        return biome == null ? ORIGINAL : biome.ordinal() + 1;
+    }
+
+    public static Biome decode(int code) {
+        if (code == NONE || code == ORIGINAL) return null;
+        return BIOMES[code - 1];
+    }
+
+    public long getKey() {
+        return key(this.x, this.z);
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public int getX() {
+        return this.x;
+    }
+
+    public int getZ() {
+        return this.z;
+    }
+
+    /**
+     * Put column to chunk. Column coordinates are world block coordinates.
+     */
+    public void setColumn(int bx, int bz, Biome biome) {
+        setColumn(((bz & 15) << 4) | (bx & 15), encode(biome));
+    }
+
+    public void setColumn(int index, int code) {
+        if (this.columns[index] == NONE) this.size++;
+        this.columns[index] = (byte) code;
+        this.journalDirty = true;
+    }
+
+    public int getColumn(int index) {
+        return this.columns[index] & 0xFF;
+    }
+
+    public WMChunk copy() {
+        WMChunk wmChunk = new WMChunk(this.world, this.x, this.z);
+        System.arraycopy(this.columns, 0, wmChunk.columns, 0, 256);
+        wmChunk.size = this.size;
+        return wmChunk;
+    }
+
+    public boolean hasOriginal() {
+        for (byte column : this.columns) {
+            if ((column & 0xFF) == ORIGINAL) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
     }
 
     public Chunk getChunk() {
@@ -88,6 +183,86 @@ public class WMChunk {
         return z == other.z;
     }
 
+    /**
+     * Remove columns which biome is not equal to filter biome.
+     * Could be called from scanner thread, chunk must not be used by main thread at this moment.
+     */
+    public void filter(ChunkSnapshot snapshot, Biome filterBiome) {
+        for (int i = 0; i < 256; i++) {
+            if (this.columns[i] == NONE) continue;
+            if (snapshot.getBiome(i & 15, i >> 4) == filterBiome) continue;
+            this.columns[i] = NONE;
+            this.size--;
+        }
+    }
+
+    /**
+     * Change biomes (or depopulate) queued columns
+     *
+     * @param previous - chunk to store previous biomes of changed columns (could be null)
+     * @return number of really changed columns
+     */
+    public int processColumns(boolean setBiomeOrDepopulate, WMChunk previous) {
+        int baseX = this.x << 4;
+        int baseZ = this.z << 4;
+        if (setBiomeOrDepopulate) {
+            Biome[] biomes = new Biome[256];
+            for (int i = 0; i < 256; i++) {
+                int code = this.columns[i] & 0xFF;
+                if (code == NONE) continue;
+                biomes[i] = code == ORIGINAL ? NmsUtil.getOriginalBiome(baseX | (i & 15), baseZ | (i >> 4), world) : BIOMES[code - 1];
+            }
+            Biome[] previousBiomes = previous == null ? null : new Biome[256];
+            int changed = NmsUtil.setChunkBiomes(getChunk(), biomes, previousBiomes);
+            if (changed < 0) {
+                if (previousBiomes != null) Arrays.fill(previousBiomes, null);
+                changed = 0;
+                for (int i = 0; i < 256; i++) {
+                    if (biomes[i] == null) continue;
+                    int bx = baseX | (i & 15);
+                    int bz = baseZ | (i >> 4);
+                    Biome current = world.getBiome(bx, bz);
+                    if (current == biomes[i]) continue;
+                    if (previousBiomes != null) previousBiomes[i] = current;
+                    world.setBiome(bx, bz, biomes[i]);
+                    changed++;
+                }
+            }
+            if (previousBiomes != null) {
+                for (int i = 0; i < 256; i++) {
+                    if (previousBiomes[i] != null) previous.setColumn(i, encode(previousBiomes[i]));
+                }
+            }
+            return changed;
+        } else {
+            for (int i = 0; i < 256; i++) {
+                if (this.columns[i] == NONE) continue;
+                Repopulator.depopulateColumn(world, baseX | (i & 15), baseZ | (i >> 4));
+            }
+            return this.size;
+        }
+    }
+
+    /**
+     * Put all queued columns of other chunk to this chunk (later write wins)
+     */
+    public void merge(WMChunk other) {
+        for (int i = 0; i < 256; i++) {
+            if (other.columns[i] != NONE) setColumn(i, other.columns[i] & 0xFF);
+        }
+    }
+
+    /**
+     * Remove columns that are queued in other chunk
+     */
+    public void removeColumns(WMChunk other) {
+        for (int i = 0; i < 256; i++) {
+            if (other.columns[i] == NONE || this.columns[i] == NONE) continue;
+            this.columns[i] = NONE;
+            this.size--;
+            this.journalDirty = true;
+        }
+    }
 
     public void processChunk(boolean setBiomeOrDepopulate) {
         Chunk chunk = getChunk();
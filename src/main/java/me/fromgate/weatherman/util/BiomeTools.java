@@ -23,8 +23,8 @@
 package me.fromgate.weatherman.util;
 
 import me.fromgate.weatherman.WeatherMan;
-import me.fromgate.weatherman.queue.BiomeBlock;
 import me.fromgate.weatherman.queue.FloodFill;
+import me.fromgate.weatherman.queue.Queue;
 import me.fromgate.weatherman.queue.QueueManager;
 import me.fromgate.weatherman.util.lang.M;
 import org.bukkit.Bukkit;
@@ -38,6 +38,7 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -49,6 +50,33 @@ public class BiomeTools {
     }
 
     private static Map<String, Biome> biomes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); //возможно оставить для алиасов?!
+    // Biome names used before 1.13 (name:new_name)
+    private static final String LEGACY_BIOMES = "SWAMPLAND:SWAMP,FOREST_HILLS:WOODED_HILLS,TAIGA_COLD:SNOWY_TAIGA,TAIGA_COLD_HILLS:SNOWY_TAIGA_HILLS," +
+            "REDWOOD_TAIGA:GIANT_TREE_TAIGA,REDWOOD_TAIGA_HILLS:GIANT_TREE_TAIGA_HILLS,EXTREME_HILLS:MOUNTAINS," +
+            "EXTREME_HILLS_WITH_TREES:WOODED_MOUNTAINS,SMALLER_EXTREME_HILLS:MOUNTAIN_EDGE,MUSHROOM_ISLAND:MUSHROOM_FIELDS," +
+            "MUSHROOM_ISLAND_SHORE:MUSHROOM_FIELD_SHORE,STONE_BEACH:STONE_SHORE,COLD_BEACH:SNOWY_BEACH,ICE_FLATS:SNOWY_TUNDRA," +
+            "ICE_MOUNTAINS:SNOWY_MOUNTAINS,ROOFED_FOREST:DARK_FOREST,MESA:BADLANDS,MESA_ROCK:WOODED_BADLANDS_PLATEAU," +
+            "MESA_CLEAR_ROCK:BADLANDS_PLATEAU,SAVANNA_ROCK:SAVANNA_PLATEAU,HELL:NETHER,SKY:THE_END,VOID:THE_VOID," +
+            "MUTATED_PLAINS:SUNFLOWER_PLAINS,MUTATED_DESERT:DESERT_LAKES,MUTATED_EXTREME_HILLS:GRAVELLY_MOUNTAINS," +
+            "MUTATED_FOREST:FLOWER_FOREST,MUTATED_TAIGA:TAIGA_MOUNTAINS,MUTATED_SWAMPLAND:SWAMP_HILLS,MUTATED_ICE_FLATS:ICE_SPIKES," +
+            "MUTATED_JUNGLE:MODIFIED_JUNGLE,MUTATED_JUNGLE_EDGE:MODIFIED_JUNGLE_EDGE,MUTATED_BIRCH_FOREST:TALL_BIRCH_FOREST," +
+            "MUTATED_BIRCH_FOREST_HILLS:TALL_BIRCH_HILLS,MUTATED_ROOFED_FOREST:DARK_FOREST_HILLS," +
+            "MUTATED_TAIGA_COLD:SNOWY_TAIGA_MOUNTAINS,MUTATED_REDWOOD_TAIGA:GIANT_SPRUCE_TAIGA," +
+            "MUTATED_REDWOOD_TAIGA_HILLS:GIANT_SPRUCE_TAIGA_HILLS,MUTATED_EXTREME_HILLS_WITH_TREES:MODIFIED_GRAVELLY_MOUNTAINS," +
+            "MUTATED_SAVANNA:SHATTERED_SAVANNA,MUTATED_SAVANNA_ROCK:SHATTERED_SAVANNA_PLATEAU,MUTATED_MESA:ERODED_BADLANDS," +
+            "MUTATED_MESA_ROCK:MODIFIED_WOODED_BADLANDS_PLATEAU,MUTATED_MESA_CLEAR_ROCK:MODIFIED_BADLANDS_PLATEAU," +
+            "ICE_PLAINS:SNOWY_TUNDRA,ICE_PLAINS_SPIKES:ICE_SPIKES,COLD_TAIGA:SNOWY_TAIGA,COLD_TAIGA_HILLS:SNOWY_TAIGA_HILLS," +
+            "COLD_TAIGA_MOUNTAINS:SNOWY_TAIGA_MOUNTAINS,MEGA_TAIGA:GIANT_TREE_TAIGA,MEGA_TAIGA_HILLS:GIANT_TREE_TAIGA_HILLS," +
+            "MEGA_SPRUCE_TAIGA:GIANT_SPRUCE_TAIGA,MEGA_SPRUCE_TAIGA_HILLS:GIANT_SPRUCE_TAIGA_HILLS," +
+            "EXTREME_HILLS_PLUS:WOODED_MOUNTAINS,EXTREME_HILLS_MOUNTAINS:GRAVELLY_MOUNTAINS," +
+            "EXTREME_HILLS_PLUS_MOUNTAINS:MODIFIED_GRAVELLY_MOUNTAINS,SMALL_MOUNTAINS:MOUNTAIN_EDGE,MUSHROOM_SHORE:MUSHROOM_FIELD_SHORE," +
+            "MESA_BRYCE:ERODED_BADLANDS,MESA_PLATEAU:BADLANDS_PLATEAU,MESA_PLATEAU_FOREST:WOODED_BADLANDS_PLATEAU," +
+            "MESA_PLATEAU_MOUNTAINS:MODIFIED_BADLANDS_PLATEAU,MESA_PLATEAU_FOREST_MOUNTAINS:MODIFIED_WOODED_BADLANDS_PLATEAU," +
+            "DESERT_MOUNTAINS:DESERT_LAKES,JUNGLE_MOUNTAINS:MODIFIED_JUNGLE,JUNGLE_EDGE_MOUNTAINS:MODIFIED_JUNGLE_EDGE," +
+            "ROOFED_FOREST_MOUNTAINS:DARK_FOREST_HILLS,SAVANNA_MOUNTAINS:SHATTERED_SAVANNA," +
+            "SAVANNA_PLATEAU_MOUNTAINS:SHATTERED_SAVANNA_PLATEAU,BIRCH_FOREST_MOUNTAINS:TALL_BIRCH_FOREST," +
+            "BIRCH_FOREST_HILLS_MOUNTAINS:TALL_BIRCH_HILLS,SWAMPLAND_MOUNTAINS:SWAMP_HILLS";
+    private static Map<String, Biome> aliases = new HashMap<>(); // lower case name, enum name, legacy names and user aliases
     private static String outdatedBiomes = "rainforest,seasonalforest,savanna,shrubland,icedesert,tundra";    //RAINFOREST, SEASONAL_FOREST, SAVANNA, SHRUBLAND, ICE_DESERT, TUNDRA - устаревшие биомы
 
     public static boolean replaceBiomeCommand(CommandSender sender, Map<String, String> params) {
@@ -75,10 +103,11 @@ public class BiomeTools {
             if (loc1 != null) return setBiomeRadius(sender, loc1, biome, radius, sourceBiome);
             else return setBiomeRadius(player, biome, radius, sourceBiome);
         }
-        if (loc1 != null && loc2 != null) return setBiomeArea(sender, loc1, loc2, biome, sourceBiome);
+        boolean offline = ParamUtil.getParam(params, "offline", false);
+        if (loc1 != null && loc2 != null) return setBiomeArea(sender, loc1, loc2, biome, sourceBiome, offline);
         if (ParamUtil.isParamExists(params, "region"))
-            return setBiomeRegion(sender, biome, ParamUtil.getParam(params, "region", ""), sourceBiome);
-        return setBiomeSelection(sender, biome, sourceBiome);
+            return setBiomeRegion(sender, biome, ParamUtil.getParam(params, "region", ""), sourceBiome, offline);
+        return setBiomeSelection(sender, biome, sourceBiome, offline);
     }
 
     public static boolean setBiomeCommand(CommandSender sender, Map<String, String> params) {
@@ -93,14 +122,15 @@ public class BiomeTools {
             if (loc1 == null) return setBiomeRadius(sender, biome, radius, null);
             else return setBiomeRadius(sender, loc1, biome, radius, null);
         }
-        if (loc1 != null && loc2 != null) return BiomeTools.setBiomeArea(sender, loc1, loc2, biome, null);
+        boolean offline = ParamUtil.getParam(params, "offline", false);
+        if (loc1 != null && loc2 != null) return BiomeTools.setBiomeArea(sender, loc1, loc2, biome, null, offline);
         if (ParamUtil.isParamExists(params, "region"))
-            return setBiomeRegion(sender, biome, ParamUtil.getParam(params, "region", ""), null);
-        return setBiomeSelection(sender, biome, null);
+            return setBiomeRegion(sender, biome, ParamUtil.getParam(params, "region", ""), null, offline);
+        return setBiomeSelection(sender, biome, null, offline);
     }
 
-    public static boolean setBiomeRegion(CommandSender sender, Biome biome, String region, Biome replaceBiome) {
-        return QueueManager.addQueueRegion(sender, region, biome, true, replaceBiome);
+    public static boolean setBiomeRegion(CommandSender sender, Biome biome, String region, Biome replaceBiome, boolean offline) {
+        return QueueManager.addQueueRegion(sender, region, biome, true, replaceBiome, offline);
     }
 
     public static boolean setBiomeRadius(CommandSender sender, Biome biome, int radius, Biome replaceBiome) {
@@ -117,31 +147,23 @@ public class BiomeTools {
         return QueueManager.addQueue(sender, loc, radius, biome, true, replaceBiome);
     }
 
-    public static boolean setBiomeSelection(CommandSender sender, Biome biome, Biome replaceBiome) {
-        return QueueManager.addQueueSelection(sender, biome, true, replaceBiome);
+    public static boolean setBiomeSelection(CommandSender sender, Biome biome, Biome replaceBiome, boolean offline) {
+        return QueueManager.addQueueSelection(sender, biome, true, replaceBiome, offline);
     }
 
-    public static boolean setBiomeArea(CommandSender sender, Location loc1, Location loc2, Biome biome, Biome replaceBiome) {
-        return QueueManager.addQueue(sender, loc1, loc2, biome, true, replaceBiome);
+    public static boolean setBiomeArea(CommandSender sender, Location loc1, Location loc2, Biome biome, Biome replaceBiome, boolean offline) {
+        return QueueManager.addQueue(sender, loc1, loc2, biome, true, replaceBiome, offline);
     }
 
     public static boolean isBiomeExists(String biomeStr) {
         if (biomeStr == null) return false;
         if (biomeStr.isEmpty()) return false;
-        for (String biome : biomes.keySet())
-            if (biome.equalsIgnoreCase(biomeStr)) return true;
-        return false;
+        return biomeStr.equalsIgnoreCase("original") || aliases.containsKey(biomeStr.toLowerCase());
     }
 
     public static Biome biomeByName(String biomeStr) {
-        if (biomeStr != null) {
-            for (Map.Entry<String, Biome> e : biomes.entrySet()) {
-                if (e.getKey().equals("original")) continue;
-                if (e.getKey().equalsIgnoreCase(biomeStr)) return e.getValue();
-                if (e.getValue().name().equalsIgnoreCase(biomeStr)) return e.getValue();
-            }
-        }
-        return null;
+        if (biomeStr == null) return null;
+        return aliases.get(biomeStr.toLowerCase());
     }
 
     public static String getBiomeList(String mask) {
@@ -256,23 +278,43 @@ public class BiomeTools {
                 if (!(Util.isWordInList(bstr, outdatedBiomes))) BiomeTools.biomes.put(bstr, biome);
             }
         }
+        initAliases();
+    }
+
+    private static void initAliases() {
+        aliases.clear();
+        for (Map.Entry<String, Biome> e : biomes.entrySet()) {
+            if (e.getValue() == null) continue;
+            aliases.put(e.getKey().toLowerCase(), e.getValue());
+            aliases.put(e.getValue().name().toLowerCase(), e.getValue());
+        }
+        addAliases(LEGACY_BIOMES, false);
+        addAliases(Cfg.biomeAliases, true);
+    }
+
+    private static void addAliases(String aliasList, boolean replace) {
+        if (aliasList == null || aliasList.isEmpty()) return;
+        for (String aliasStr : aliasList.split(",")) {
+            String[] ln = aliasStr.trim().split(":");
+            if (ln.length != 2) continue;
+            String alias = ln[0].trim().toLowerCase();
+            Biome biome = aliases.get(ln[1].trim().toLowerCase());
+            if (biome == null || alias.isEmpty()) continue;
+            if (replace || !aliases.containsKey(alias)) aliases.put(alias, biome);
+        }
     }
 
     protected static boolean floodFill(CommandSender sender, Location loc, Biome toBiome) {
         if (loc == null) return false;
-        List<BiomeBlock> blocks = new ArrayList<>();
-        blocks.addAll(FloodFill.scanArea(loc, toBiome));
-        if (blocks.isEmpty()) return false;
-        return QueueManager.addQueue(sender, blocks, true, null);
+        Queue queue = new Queue(sender, loc.getWorld(), true);
+        FloodFill floodFill = new FloodFill(queue, loc.getBlockX(), loc.getBlockZ(), toBiome);
+        if (floodFill.isFinished()) return false;
+        queue.setFloodFill(floodFill);
+        return QueueManager.addQueue(queue);
     }
 
     public static boolean replaceBiome(CommandSender sender, Biome b1, Biome tobiome, Location loc1, Location loc2) {
-        List<BiomeBlock> blocks = new ArrayList<>();
-        World w = loc1.getWorld();
-        for (int x = Math.min(loc1.getBlockX(), loc2.getBlockX()); x <= Math.max(loc1.getBlockX(), loc2.getBlockX()); x++)
-            for (int z = Math.min(loc1.getBlockZ(), loc2.getBlockZ()); z <= Math.max(loc1.getBlockZ(), loc2.getBlockZ()); z++)
-                if (w.getBiome(x, z).equals(b1)) blocks.add(new BiomeBlock(w, x, z, tobiome));
-        return QueueManager.addQueue(sender, blocks, true, null);
+        return QueueManager.addQueue(sender, loc1, loc2, tobiome, true, b1);
     }
 
     public static String checkBiomes(String biomeList) {
@@ -287,13 +329,6 @@ public class BiomeTools {
         return str.toString();
     }
 
-    public static List<BiomeBlock> reFilter(List<BiomeBlock> blocks, Biome filterBiome) {
-        if (filterBiome == null) return blocks;
-        List<BiomeBlock> newBlocks = new ArrayList<>();
-        for (BiomeBlock biomeBlock : blocks)
-            if (biomeBlock.getBiome().equals(filterBiome)) newBlocks.add(biomeBlock);
-        return newBlocks;
-    }
 
     public static Location parseLocation(String strLoc) {
         Location loc = null;
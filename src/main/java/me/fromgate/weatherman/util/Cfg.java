@@ -27,7 +27,16 @@ import org.bukkit.block.Biome;
 
 public class Cfg {
 
-    private final static String[] NEW_CONFIG_FIELDS = {"system.chunk-update-method"};
+    private final static String[] NEW_CONFIG_FIELDS = {"system.chunk-update-method", "queue.tick-budget-ms",
+            "queue.interactive-chunks", "queue.resend-chunks-per-tick",
+            "system.original-biome-cache-chunks", "system.player-save-interval",
+            "system.player-storage", "biomes.aliases", "queue.flood-fill-max-columns",
+            "queue.flood-fill-columns-per-tick",
+            "queue.scan-threads", "queue.scan-chunks-per-tick",
+            "queue.preload-chunks", "queue.sync-loads-per-tick",
+            "queue.journal", "queue.journal-interval",
+            "history.size", "history.disk-size", "snapshot.max-chunks",
+            "queue.target-mspt", "queue.progress-interval"};
 
 
     public static String language;
@@ -42,6 +51,7 @@ public class Cfg {
     public static int maxRadiusSign;
     public static boolean netherMob;
     public static String unsnowBiomes;
+    public static String biomeAliases;
     public static String uniceBiomes;
 
     public static boolean localTimeEnable;
@@ -53,6 +63,26 @@ public class Cfg {
 
     public static int chunkUpdateMethod = 0; // 0 - default, 1 - experimental1, etc.
 
+    public static int queueTickBudget;
+    public static int queueTargetMspt;
+    public static int queueProgressInterval;
+    public static int queueInteractiveChunks;
+    public static int resendChunksPerTick;
+    public static int floodFillMaxColumns;
+    public static int floodFillColumnsPerTick;
+    public static int scanThreads;
+    public static int scanChunksPerTick;
+    public static int queuePreloadChunks;
+    public static int queueSyncLoadsPerTick;
+    public static boolean queueJournal;
+    public static int queueJournalInterval;
+    public static int historySize;
+    public static int historyDiskSize;
+    public static int snapshotMaxChunks;
+    public static int originalBiomeCacheSize;
+    public static int playerSaveInterval;
+    public static String playerStorage;
+
     private static boolean needUpdate = true;
 
 
@@ -64,6 +94,26 @@ public class Cfg {
         debug = getBoolean("general.debug", false);
         checkUpdates = getBoolean("general.check-updates", true);
         chunkUpdateMethod = getInt("system.chunk-update-method", 0);
+        originalBiomeCacheSize = getInt("system.original-biome-cache-chunks", 1024);
+        playerSaveInterval = getInt("system.player-save-interval", 10);
+        playerStorage = getString("system.player-storage", "yaml");
+        queueTickBudget = getInt("queue.tick-budget-ms", 10);
+        // Tick duration is measured between tick starts, so it is never shorter than 50 ms
+        queueTargetMspt = Math.max(50, getInt("queue.target-mspt", 50));
+        queueProgressInterval = getInt("queue.progress-interval", 10);
+        queueInteractiveChunks = getInt("queue.interactive-chunks", 64);
+        resendChunksPerTick = Math.max(1, getInt("queue.resend-chunks-per-tick", 4));
+        floodFillMaxColumns = getInt("queue.flood-fill-max-columns", 250000);
+        floodFillColumnsPerTick = Math.max(1, getInt("queue.flood-fill-columns-per-tick", 16384));
+        scanThreads = getInt("queue.scan-threads", 0);
+        scanChunksPerTick = Math.max(1, getInt("queue.scan-chunks-per-tick", 32));
+        queuePreloadChunks = Math.max(1, getInt("queue.preload-chunks", 64));
+        queueSyncLoadsPerTick = Math.max(1, getInt("queue.sync-loads-per-tick", 4));
+        queueJournal = getBoolean("queue.journal", true);
+        queueJournalInterval = Math.max(1, getInt("queue.journal-interval", 30));
+        historySize = getInt("history.size", 10);
+        historyDiskSize = getInt("history.disk-size", 50);
+        snapshotMaxChunks = Math.max(1, getInt("snapshot.max-chunks", 65536));
         personalTimeClear = getBoolean("personal.time.reset-on-start", false);
         personalWeatherClear = getBoolean("personal.weather.reset-on-start", false);
         personalBrushClear = getBoolean("personal.brush.reset-on-start", true);
@@ -74,6 +124,7 @@ public class Cfg {
         maxRadiusSign = getInt("limits.maximum-sign-radius", 100);
         netherMob = getBoolean("biomes.spawn-nether-mobs-in-normal", true);
         unsnowBiomes = getString("biomes.disable-snow-forming", "");
+        biomeAliases = getString("biomes.aliases", "");
         uniceBiomes = getString("biomes.disable-ice-forming", "");
         meltIce = getBoolean("biomes.melt-ice", true);
         meltSnow = getBoolean("biomes.melt-snow", true);
@@ -90,6 +141,25 @@ public class Cfg {
             set("general.debug", debug);
             set("general.check-updates", checkUpdates);
             set("system.chunk-update-method", chunkUpdateMethod);
+            set("system.original-biome-cache-chunks", originalBiomeCacheSize);
+            set("system.player-save-interval", playerSaveInterval);
+            set("system.player-storage", playerStorage);
+            set("queue.tick-budget-ms", queueTickBudget);
+            set("queue.target-mspt", queueTargetMspt);
+            set("queue.progress-interval", queueProgressInterval);
+            set("queue.interactive-chunks", queueInteractiveChunks);
+            set("queue.resend-chunks-per-tick", resendChunksPerTick);
+            set("queue.flood-fill-max-columns", floodFillMaxColumns);
+            set("queue.flood-fill-columns-per-tick", floodFillColumnsPerTick);
+            set("queue.scan-threads", scanThreads);
+            set("queue.scan-chunks-per-tick", scanChunksPerTick);
+            set("queue.preload-chunks", queuePreloadChunks);
+            set("queue.sync-loads-per-tick", queueSyncLoadsPerTick);
+            set("queue.journal", queueJournal);
+            set("queue.journal-interval", queueJournalInterval);
+            set("history.size", historySize);
+            set("history.disk-size", historyDiskSize);
+            set("snapshot.max-chunks", snapshotMaxChunks);
             set("local.time-enable", localTimeEnable);
             set("local.weather-enable", localWeatherEnable);
             set("personal.time.reset-on-start", personalTimeClear);
@@ -103,6 +173,7 @@ public class Cfg {
             set("biomes.spawn-nether-mobs-in-normal", netherMob);
             set("biomes.disable-snow-forming", unsnowBiomes);
             set("biomes.disable-ice-forming", uniceBiomes);
+            set("biomes.aliases", biomeAliases);
             set("brush.default-radius", defaultRadius);
             set("brush.biome.default-biome", BiomeTools.biomeToString(defaultBiome));
             WeatherMan.getPlugin().getConfig().options().copyHeader(false);
@@ -33,14 +33,15 @@ import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Snowball;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Random;
 
 
 public class Forester {
 
-    private static Map<String, String> biomeTrees = new HashMap<>();
+    private static Map<Biome, String> biomeTrees = new EnumMap<>(Biome.class);
+    private static Map<Biome, TreeType[]> biomeTreeTypes = new EnumMap<>(Biome.class); // null - random tree
     private static Random random;
 
     public static void init() {
@@ -57,10 +58,11 @@ public class Forester {
         File f = new File(WeatherMan.getPlugin().getDataFolder() + File.separator + "forester-brush.yml");
         if (!f.exists()) return;
         biomeTrees.clear();
+        biomeTreeTypes.clear();
         try {
             cfg.load(f);
             for (String key : cfg.getKeys(false)) {
-                biomeTrees.put(key, cfg.getString(key));
+                putTrees(key, cfg.getString(key));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -74,9 +76,8 @@ public class Forester {
         if (f.exists()) f.delete();
         try {
             f.createNewFile();
-            for (String biomeStr : biomeTrees.keySet()) {
-                if (BiomeTools.isBiomeExists(biomeStr))
-                    cfg.set(biomeStr, biomeTrees.get(biomeStr));
+            for (Biome biome : biomeTrees.keySet()) {
+                cfg.set(biome.name(), biomeTrees.get(biome));
             }
             cfg.save(f);
         } catch (Exception e) {
@@ -95,15 +96,30 @@ public class Forester {
         return false;
     }
 
+    /**
+     * Trees are parsed once, when biome trees are loaded
+     */
+    private static void putTrees(String biomeStr, String treesStr) {
+        Biome biome = BiomeTools.biomeByName(biomeStr);
+        if (biome == null || treesStr == null) return;
+        String[] treeLn = treesStr.split(",");
+        TreeType[] trees = new TreeType[treeLn.length];
+        for (int i = 0; i < treeLn.length; i++) {
+            String treeStr = treeLn[i].trim();
+            if (treeStr.equalsIgnoreCase("random")) trees[i] = null;
+            else if (treeStr.equalsIgnoreCase("default")) trees[i] = TreeType.TREE;
+            else trees[i] = getTreeByName(treeStr, biome);
+        }
+        biomeTrees.put(biome, treesStr);
+        biomeTreeTypes.put(biome, trees);
+    }
+
     public static TreeType getTreeByBiome(Biome biome) {
         if (biome == null) return TreeType.TREE;
-        String biomeStr = biome.name();
-        if (!biomeTrees.containsKey(biomeStr.toUpperCase())) return TreeType.TREE;
-        String treesStr = biomeTrees.get(biomeStr.toUpperCase());
-        String[] treeLn = treesStr.split(",");
-        if (treeLn.length == 0) return TreeType.TREE;
-        String treeStr = treeLn[random.nextInt(treeLn.length)];
-        return getTreeByName(treeStr, biome);
+        TreeType[] trees = biomeTreeTypes.get(biome);
+        if (trees == null || trees.length == 0) return TreeType.TREE;
+        TreeType tree = trees[random.nextInt(trees.length)];
+        return tree == null ? getRandomTree() : tree;
     }
 
     public static TreeType getTreeByName(String treeName, Biome biome) {
@@ -122,67 +138,67 @@ public class Forester {
 
 
     public static void initDefaultTrees() {
-        biomeTrees.put("BEACH", "");
-        biomeTrees.put("BIRCH_FOREST", "BIRCH,TALL_BIRCH");
-        biomeTrees.put("BIRCH_FOREST_HILLS", "BIRCH,TALL_BIRCH");
-        biomeTrees.put("BIRCH_FOREST_HILLS_MOUNTAINS", "BIRCH");
-        biomeTrees.put("BIRCH_FOREST_MOUNTAINS", "BIRCH,TALL_BIRCH");
-        biomeTrees.put("COLD_BEACH", "TREE");
-        biomeTrees.put("COLD_TAIGA", "REDWOOD,TALL_REDWOOD,MEGA_REDWOOD");
-        biomeTrees.put("COLD_TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("COLD_TAIGA_MOUNTAINS", "REDWOOD");
-        biomeTrees.put("DEEP_OCEAN", "TREE");
-        biomeTrees.put("DESERT", "TREE");
-        biomeTrees.put("DESERT_HILLS", "TREE");
-        biomeTrees.put("DESERT_MOUNTAINS", "TREE");
-        biomeTrees.put("EXTREME_HILLS", "REDWOOD,TREE");  //BIG_TREE
-        biomeTrees.put("EXTREME_HILLS_MOUNTAINS", "");
-        biomeTrees.put("EXTREME_HILLS_PLUS", "TREE");
-        biomeTrees.put("EXTREME_HILLS_PLUS_MOUNTAINS", "TREE");
-        biomeTrees.put("FLOWER_FOREST", "TREE,BIG_TREE");
-        biomeTrees.put("FOREST", "TREE,BIRCH,BIG_TREE,TALL_BIRCH");
-        biomeTrees.put("FOREST_HILLS", "TREE,BIRCH,BIG_TREE,TALL_BIRCH");
-        biomeTrees.put("FROZEN_OCEAN", "TREE");
-        biomeTrees.put("FROZEN_RIVER", "TREE");
-        biomeTrees.put("HELL", "TREE");
-        biomeTrees.put("ICE_MOUNTAINS", "TREE");
-        biomeTrees.put("ICE_PLAINS", "TREE,REDWOOD");
-        biomeTrees.put("ICE_PLAINS_SPIKES", "TREE");
-        biomeTrees.put("JUNGLE", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
-        biomeTrees.put("JUNGLE_EDGE", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
-        biomeTrees.put("JUNGLE_EDGE_MOUNTAINS", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
-        biomeTrees.put("JUNGLE_HILLS", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
-        biomeTrees.put("JUNGLE_MOUNTAINS", "JUNGLE,JUNGLE_BUSH");
-        biomeTrees.put("MEGA_SPRUCE_TAIGA", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("MEGA_SPRUCE_TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("MEGA_TAIGA", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("MEGA_TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("MESA", "TREE");
-        biomeTrees.put("MESA_BRYCE", "TREE");
-        biomeTrees.put("MESA_PLATEAU", "TREE");
-        biomeTrees.put("MESA_PLATEAU_FOREST", "TREE");
-        biomeTrees.put("MESA_PLATEAU_FOREST_MOUNTAINS", "");
-        biomeTrees.put("MESA_PLATEAU_MOUNTAINS", "TREE");
-        biomeTrees.put("MUSHROOM_ISLAND", "BROWN_MUSHROOM,RED_MUSHROOM");
-        biomeTrees.put("MUSHROOM_SHORE", "BROWN_MUSHROOM,RED_MUSHROOM");
-        biomeTrees.put("OCEAN", "TREE");
-        biomeTrees.put("PLAINS", "TREE");
-        biomeTrees.put("RIVER", "TREE");
-        biomeTrees.put("ROOFED_FOREST", "DARK_OAK");
-        biomeTrees.put("ROOFED_FOREST_MOUNTAINS", "DARK_OAK");
-        biomeTrees.put("SAVANNA", "ACACIA");
-        biomeTrees.put("SAVANNA_MOUNTAINS", "ACACIA");
-        biomeTrees.put("SAVANNA_PLATEAU", "ACACIA");
-        biomeTrees.put("SAVANNA_PLATEAU_MOUNTAINS", "ACACIA");
-        biomeTrees.put("SKY", "TREE");
-        biomeTrees.put("SMALL_MOUNTAINS", "TREE");
-        biomeTrees.put("STONE_BEACH", "TREE");
-        biomeTrees.put("SUNFLOWER_PLAINS", "TREE");
-        biomeTrees.put("SWAMPLAND", "SWAMP");
-        biomeTrees.put("SWAMPLAND_MOUNTAINS", "SWAMP");
-        biomeTrees.put("TAIGA", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
-        biomeTrees.put("TAIGA_MOUNTAINS", "REDWOOD,TALL_REDWOOD");
+        putTrees("BEACH", "");
+        putTrees("BIRCH_FOREST", "BIRCH,TALL_BIRCH");
+        putTrees("BIRCH_FOREST_HILLS", "BIRCH,TALL_BIRCH");
+        putTrees("BIRCH_FOREST_HILLS_MOUNTAINS", "BIRCH");
+        putTrees("BIRCH_FOREST_MOUNTAINS", "BIRCH,TALL_BIRCH");
+        putTrees("COLD_BEACH", "TREE");
+        putTrees("COLD_TAIGA", "REDWOOD,TALL_REDWOOD,MEGA_REDWOOD");
+        putTrees("COLD_TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
+        putTrees("COLD_TAIGA_MOUNTAINS", "REDWOOD");
+        putTrees("DEEP_OCEAN", "TREE");
+        putTrees("DESERT", "TREE");
+        putTrees("DESERT_HILLS", "TREE");
+        putTrees("DESERT_MOUNTAINS", "TREE");
+        putTrees("EXTREME_HILLS", "REDWOOD,TREE");  //BIG_TREE
+        putTrees("EXTREME_HILLS_MOUNTAINS", "");
+        putTrees("EXTREME_HILLS_PLUS", "TREE");
+        putTrees("EXTREME_HILLS_PLUS_MOUNTAINS", "TREE");
+        putTrees("FLOWER_FOREST", "TREE,BIG_TREE");
+        putTrees("FOREST", "TREE,BIRCH,BIG_TREE,TALL_BIRCH");
+        putTrees("FOREST_HILLS", "TREE,BIRCH,BIG_TREE,TALL_BIRCH");
+        putTrees("FROZEN_OCEAN", "TREE");
+        putTrees("FROZEN_RIVER", "TREE");
+        putTrees("HELL", "TREE");
+        putTrees("ICE_MOUNTAINS", "TREE");
+        putTrees("ICE_PLAINS", "TREE,REDWOOD");
+        putTrees("ICE_PLAINS_SPIKES", "TREE");
+        putTrees("JUNGLE", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
+        putTrees("JUNGLE_EDGE", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
+        putTrees("JUNGLE_EDGE_MOUNTAINS", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
+        putTrees("JUNGLE_HILLS", "SMALL_JUNGLE,JUNGLE,JUNGLE_BUSH");
+        putTrees("JUNGLE_MOUNTAINS", "JUNGLE,JUNGLE_BUSH");
+        putTrees("MEGA_SPRUCE_TAIGA", "REDWOOD,TALL_REDWOOD");
+        putTrees("MEGA_SPRUCE_TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
+        putTrees("MEGA_TAIGA", "REDWOOD,TALL_REDWOOD");
+        putTrees("MEGA_TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
+        putTrees("MESA", "TREE");
+        putTrees("MESA_BRYCE", "TREE");
+        putTrees("MESA_PLATEAU", "TREE");
+        putTrees("MESA_PLATEAU_FOREST", "TREE");
+        putTrees("MESA_PLATEAU_FOREST_MOUNTAINS", "");
+        putTrees("MESA_PLATEAU_MOUNTAINS", "TREE");
+        putTrees("MUSHROOM_ISLAND", "BROWN_MUSHROOM,RED_MUSHROOM");
+        putTrees("MUSHROOM_SHORE", "BROWN_MUSHROOM,RED_MUSHROOM");
+        putTrees("OCEAN", "TREE");
+        putTrees("PLAINS", "TREE");
+        putTrees("RIVER", "TREE");
+        putTrees("ROOFED_FOREST", "DARK_OAK");
+        putTrees("ROOFED_FOREST_MOUNTAINS", "DARK_OAK");
+        putTrees("SAVANNA", "ACACIA");
+        putTrees("SAVANNA_MOUNTAINS", "ACACIA");
+        putTrees("SAVANNA_PLATEAU", "ACACIA");
+        putTrees("SAVANNA_PLATEAU_MOUNTAINS", "ACACIA");
+        putTrees("SKY", "TREE");
+        putTrees("SMALL_MOUNTAINS", "TREE");
+        putTrees("STONE_BEACH", "TREE");
+        putTrees("SUNFLOWER_PLAINS", "TREE");
+        putTrees("SWAMPLAND", "SWAMP");
+        putTrees("SWAMPLAND_MOUNTAINS", "SWAMP");
+        putTrees("TAIGA", "REDWOOD,TALL_REDWOOD");
+        putTrees("TAIGA_HILLS", "REDWOOD,TALL_REDWOOD");
+        putTrees("TAIGA_MOUNTAINS", "REDWOOD,TALL_REDWOOD");
     }
 
     public static void growTree(Location loc, String treeType) {
@@ -23,15 +23,27 @@
 
 package me.fromgate.weatherman.util;
 
+import me.fromgate.weatherman.util.tasks.ChunkResendTask;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Biome;
+import org.bukkit.entity.Player;
 
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Logger;
 
 public class NmsUtil {
@@ -51,6 +63,7 @@ public class NmsUtil {
     private static Class<?> WorldChunkManager;
     private static Field field_WorldProvider_d;
     private static Method getBiome;
+    private static Method getBiomeBlock;
     private static Class<?> CraftBlock;
     private static Class<?> BiomeBase;
     private static Method biomeBaseToBiome;
@@ -62,6 +75,7 @@ public class NmsUtil {
     private static Field nms_chunk_world;
     private static Method getChunkProvider;
     private static Class<?> NmsChunk;
+    private static Method nmsChunk_getBiomeIndex;
     private static Class<?> ChunkProviderServer;
 
     private static Method saveChunk;
@@ -81,6 +95,16 @@ public class NmsUtil {
     private static Field playerConnection;
     private static Class<?> PlayerConnection;
     private static Method sendPacket;
+    private static Method fileIOThread_getInstance;
+    private static Method fileIOThread_waitForSaves;
+    private static Class<?> RegionFileCache;
+    private static Field regionFileCache_cache;
+    private static Method regionFile_close;
+
+    private static Map<World, Object> chunkManagers = new WeakHashMap<>();
+    private static Object[] biomeBases = null;
+    private static Map<Object, Biome> biomeByBase = new IdentityHashMap<>();
+    private static int[] biomeIds = null;
 
     static {
         log = Logger.getLogger("Minecraft");
@@ -105,6 +129,7 @@ public class NmsUtil {
             craftWorld_getHandle = CraftWorld.getMethod("getHandle");
             NmsWorld = nmsClass("World");
             field_worldProvider = NmsWorld.getDeclaredField("worldProvider");
+            field_worldProvider.setAccessible(true);
             WorldProvider = nmsClass("WorldProvider");
             field_WorldProvider_d = WorldProvider.getDeclaredField("c");
             field_WorldProvider_d.setAccessible(true);
@@ -112,6 +137,12 @@ public class NmsUtil {
             constructBlockPosition = BlockPosition.getConstructor(int.class, int.class, int.class);
             WorldChunkManager = nmsClass("WorldChunkManager");
             getBiome = WorldChunkManager.getDeclaredMethod("getBiome", BlockPosition);
+            getBiome.setAccessible(true);
+            try {
+                getBiomeBlock = WorldChunkManager.getMethod("getBiomeBlock", int.class, int.class, int.class, int.class);
+            } catch (Exception e) {
+                getBiomeBlock = null;
+            }
             CraftBlock = cboClass("block.CraftBlock");
             BiomeBase = nmsClass("BiomeBase");
             biomeBaseToBiome = CraftBlock.getDeclaredMethod("biomeBaseToBiome", BiomeBase);
@@ -121,7 +152,14 @@ public class NmsUtil {
             craftChunk_getHandle = CraftChunk.getMethod("getHandle");
             NmsChunk = nmsClass("Chunk");
             field_NmsChunk_done = NmsChunk.getDeclaredField("done");
+            field_NmsChunk_done.setAccessible(true);
             nms_chunk_world = NmsChunk.getDeclaredField("world");
+            nms_chunk_world.setAccessible(true);
+            try {
+                nmsChunk_getBiomeIndex = NmsChunk.getMethod("getBiomeIndex");
+            } catch (Exception e) {
+                nmsChunk_getBiomeIndex = null;
+            }
             NmsWorldServer = nmsClass("WorldServer");
             getChunkProvider = NmsWorldServer.getMethod("getChunkProvider");
             ChunkProviderServer = nmsClass("ChunkProviderServer");
@@ -134,7 +172,9 @@ public class NmsUtil {
                 saveChunkBool = true;
             }
 
+            saveChunk.setAccessible(true);
             saveChunkNOP = ChunkProviderServer.getDeclaredMethod("saveChunkNOP", NmsChunk);
+            saveChunkNOP.setAccessible(true);
             CraftPlayer = cboClass("entity.CraftPlayer");
             craftPlayer_getHandle = CraftPlayer.getMethod("getHandle");
             EntityPlayer = nmsClass("EntityPlayer");
@@ -146,6 +186,25 @@ public class NmsUtil {
             newPacketUnloadChunk = PacketPlayOutUnloadChunk.getConstructor(int.class, int.class);
             PlayerConnection = nmsClass("PlayerConnection");
             sendPacket = PlayerConnection.getMethod("sendPacket", Packet);
+            try {
+                Class<?> FileIOThread = nmsClass("FileIOThread");
+                fileIOThread_getInstance = FileIOThread.getMethod("a");
+                fileIOThread_waitForSaves = FileIOThread.getMethod("b");
+                RegionFileCache = nmsClass("RegionFileCache");
+                for (Field field : RegionFileCache.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) && Map.class.isAssignableFrom(field.getType())) {
+                        field.setAccessible(true);
+                        regionFileCache_cache = field;
+                    }
+                }
+                regionFile_close = nmsClass("RegionFile").getMethod("c");
+            } catch (Exception e) {
+                fileIOThread_getInstance = null;
+                fileIOThread_waitForSaves = null;
+                RegionFileCache = null;
+                regionFileCache_cache = null;
+                regionFile_close = null;
+            }
         } catch (Exception e) {
             blocked = true;
             log.info("[WeatherMan] his version of WeatherMan is not compatible with CraftBukkit " + Bukkit.getVersion());
@@ -194,10 +253,9 @@ public class NmsUtil {
     public static float getBiomeTemperature(Biome biome) {
         if (blocked) return 100;
         try {
-            Object biomebase = biomeToBiomeBase.invoke(null, biome);
-            Object temperature = BiomeBase_getTemperature.invoke(biomebase);
-            return (Float) temperature;
-        } catch (Exception e) {
+            Object biomebase = (Object) Handles.BIOME_TO_BIOME_BASE.invokeExact((Object) biome);
+            return (float) Handles.GET_TEMPERATURE.invokeExact(biomebase);
+        } catch (Throwable e) {
             e.printStackTrace();
         }
         return 100;
@@ -205,31 +263,220 @@ public class NmsUtil {
 
     public static Biome getOriginalBiome(int x, int z, World w) {
         if (blocked) return null;
+        return OriginalBiomeCache.getBiome(w, x, z);
+    }
+
+    /**
+     * Get biomes of chunk provided by world generator
+     *
+     * @return array of 256 biomes, index is (z & 15) << 4 | (x & 15)
+     */
+    public static Biome[] getGeneratedBiomes(World w, int chunkX, int chunkZ) {
+        if (blocked) return null;
+        Biome[] biomes = new Biome[256];
         try {
-            Object nmsWorldServer = craftWorld_getHandle.invoke(w);
-            Object worldProvider = field_worldProvider.get(nmsWorldServer);
-            Object d = field_WorldProvider_d.get(worldProvider);
-            Object blockPosition = constructBlockPosition.newInstance(x, 0, z);
-            Object biomeBase = getBiome.invoke(d, blockPosition);
-            Object biome = biomeBaseToBiome.invoke(null, biomeBase);
-            return (Biome) biome;
-        } catch (Exception e) {
+            Object chunkManager = getChunkManager(w);
+            if (Handles.GET_BIOME_BLOCK != null) {
+                Object[] biomeBases = (Object[]) (Object) Handles.GET_BIOME_BLOCK.invokeExact(chunkManager, chunkX << 4, chunkZ << 4, 16, 16);
+                if (biomeBases != null && biomeBases.length >= 256) {
+                    for (int i = 0; i < 256; i++) {
+                        biomes[i] = (Biome) (Object) Handles.BIOME_BASE_TO_BIOME.invokeExact(biomeBases[i]);
+                    }
+                    return biomes;
+                }
+            }
+            for (int i = 0; i < 256; i++) {
+                int x = (chunkX << 4) | (i & 15);
+                int z = (chunkZ << 4) | (i >> 4);
+                Object blockPosition = (Object) Handles.NEW_BLOCK_POSITION.invokeExact(x, 0, z);
+                Object biomeBase = (Object) Handles.GET_BIOME.invokeExact(chunkManager, blockPosition);
+                biomes[i] = (Biome) (Object) Handles.BIOME_BASE_TO_BIOME.invokeExact(biomeBase);
+            }
+            return biomes;
+        } catch (Throwable e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Write biomes of whole chunk directly to chunk biome array.
+     * Columns that already have required biome are not changed.
+     *
+     * @param biomes   - array of 256 biomes, index is (z & 15) << 4 | (x & 15), null - keep current biome
+     * @param previous - array to store previous biomes of changed columns (could be null)
+     * @return number of changed columns or -1 if biomes could not be written (unsupported version)
+     */
+    public static int setChunkBiomes(Chunk ch, Biome[] biomes, Biome[] previous) {
+        if (blocked || Handles.GET_BIOME_INDEX == null) return -1;
+        try {
+            Object nmsChunk = (Object) Handles.GET_CHUNK_HANDLE.invokeExact((Object) ch);
+            Object[] biomeIndex = (Object[]) (Object) Handles.GET_BIOME_INDEX.invokeExact(nmsChunk);
+            if (biomeIndex == null || biomeIndex.length < 256) return -1;
+            Object[] bases = getBiomeBases();
+            if (previous != null) {
+                // Previous biomes are read before chunk is changed, so unknown biome does not break undo history
+                for (int i = 0; i < 256; i++) {
+                    if (biomes[i] == null || biomeIndex[i] == bases[biomes[i].ordinal()]) continue;
+                    previous[i] = getBiome(biomeIndex[i]);
+                    if (previous[i] == null) return -1;
+                }
+            }
+            int changed = 0;
+            for (int i = 0; i < 256; i++) {
+                if (biomes[i] == null) continue;
+                Object base = bases[biomes[i].ordinal()];
+                if (biomeIndex[i] == base) continue;
+                biomeIndex[i] = base;
+                changed++;
+            }
+            return changed;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Get numeric biome ids (used in region files)
+     *
+     * @return array of ids indexed by Biome ordinal or null if ids could not be found
+     */
+    public static int[] getBiomeIds() {
+        if (blocked) return null;
+        if (biomeIds != null) return biomeIds;
+        try {
+            Method getId;
+            Object registry = null;
+            try {
+                registry = nmsClass("IRegistry").getField("BIOME").get(null);
+                getId = registry.getClass().getMethod("a", Object.class);
+            } catch (Exception e) {
+                getId = BiomeBase.getMethod("a", BiomeBase);
+            }
+            Object[] bases = getBiomeBases();
+            int[] ids = new int[bases.length];
+            for (int i = 0; i < bases.length; i++) {
+                ids[i] = (Integer) getId.invoke(registry, bases[i]);
+            }
+            biomeIds = ids;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return biomeIds;
+    }
+
+    /**
+     * Region files could be accessed together with server (server saves could be flushed,
+     * region files could be locked and closed)
+     */
+    public static boolean isRegionAccessSupported() {
+        return !blocked && Handles.GET_FILE_IO_THREAD != null && Handles.WAIT_FOR_SAVES != null && Handles.GET_REGION_CACHE != null && Handles.CLOSE_REGION_FILE != null;
+    }
+
+    /**
+     * Wait until chunks queued to be saved by server are written to region files.
+     * Blocks current thread, should not be called in main thread.
+     */
+    public static boolean waitForSaves() {
+        if (!isRegionAccessSupported()) return false;
+        try {
+            Handles.WAIT_FOR_SAVES.invokeExact((Object) Handles.GET_FILE_IO_THREAD.invokeExact());
+            return true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Get lock of server region files. Server opens, reads and writes region files
+     * synchronized by RegionFileCache class, so region file could not be accessed by server
+     * while this object is locked.
+     */
+    public static Object getRegionFileLock() {
+        return isRegionAccessSupported() ? RegionFileCache : null;
+    }
+
+    /**
+     * Close region file opened by server. Server keeps chunk locations of opened file in memory,
+     * so file should be closed before locations are changed (server reopens it when needed).
+     * Should be called while region file lock is held.
+     *
+     * @param file - region file (.mca)
+     * @return false if file could not be closed
+     */
+    public static boolean closeRegionFile(File file) {
+        if (!isRegionAccessSupported()) return false;
+        try {
+            Path path = file.toPath().toAbsolutePath().normalize();
+            Map<?, ?> cache = (Map<?, ?>) (Object) Handles.GET_REGION_CACHE.invokeExact();
+            Iterator<? extends Map.Entry<?, ?>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<?, ?> entry = it.next();
+                if (!(entry.getKey() instanceof File)) continue;
+                if (!((File) entry.getKey()).toPath().toAbsolutePath().normalize().equals(path)) continue;
+                it.remove();
+                if (entry.getValue() != null) Handles.CLOSE_REGION_FILE.invokeExact(entry.getValue());
+            }
+            return true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Get Bukkit biome of NMS biome
+     *
+     * @return biome or null if biome could not be converted
+     */
+    private static Biome getBiome(Object biomeBase) throws Throwable {
+        if (biomeBase == null) return null;
+        Biome biome = biomeByBase.get(biomeBase);
+        if (biome == null) {
+            biome = (Biome) (Object) Handles.BIOME_BASE_TO_BIOME.invokeExact(biomeBase);
+            if (biome != null) biomeByBase.put(biomeBase, biome);
+        }
+        return biome;
+    }
+
+    /**
+     * NMS biomes indexed by Biome ordinal
+     */
+    private static Object[] getBiomeBases() throws Throwable {
+        if (biomeBases == null) {
+            Biome[] values = Biome.values();
+            Object[] bases = new Object[values.length];
+            for (Biome biome : values) {
+                bases[biome.ordinal()] = (Object) Handles.BIOME_TO_BIOME_BASE.invokeExact((Object) biome);
+                if (bases[biome.ordinal()] != null) biomeByBase.put(bases[biome.ordinal()], biome);
+            }
+            biomeBases = bases;
+        }
+        return biomeBases;
+    }
+
+    private static Object getChunkManager(World w) throws Throwable {
+        Object chunkManager = chunkManagers.get(w);
+        if (chunkManager == null) {
+            Object nmsWorldServer = (Object) Handles.GET_WORLD_HANDLE.invokeExact((Object) w);
+            Object worldProvider = (Object) Handles.GET_WORLD_PROVIDER.invokeExact(nmsWorldServer);
+            chunkManager = (Object) Handles.GET_CHUNK_MANAGER.invokeExact(worldProvider);
+            chunkManagers.put(w, chunkManager);
+        }
+        return chunkManager;
+    }
+
     @SuppressWarnings("deprecation")
     public static void repopulateChunk(final Chunk chunk) {
         if (blocked) return;
         try {
-            Object craftchunk = CraftChunk.cast(chunk);
-            Object nmsChunk = craftChunk_getHandle.invoke(craftchunk);
-            field_NmsChunk_done.setAccessible(true);
-            field_NmsChunk_done.set(nmsChunk, false);
+            Object nmsChunk = (Object) Handles.GET_CHUNK_HANDLE.invokeExact((Object) chunk);
+            Handles.SET_CHUNK_DONE.invokeExact(nmsChunk, false);
             saveChunk(chunk);
             chunk.getWorld().refreshChunk(chunk.getX(), chunk.getZ());
-        } catch (Exception e) {
+        } catch (Throwable e) {
             e.printStackTrace();
         }
     }
@@ -238,18 +485,12 @@ public class NmsUtil {
         if (blocked) return;
         if (ch == null) return;
         try {
-            Object nms_chunk = craftChunk_getHandle.invoke(ch);
-            Object nms_world = nms_chunk_world.get(nms_chunk);
-            getChunkProvider.invoke(nms_world);
-            Object chunkProvider = getChunkProvider.invoke(nms_world);
-            if (saveChunkBool) {
-                saveChunk.invoke(chunkProvider, nms_chunk, false);
-            } else {
-                saveChunk.invoke(chunkProvider, nms_chunk);
-            }
-
-            saveChunkNOP.invoke(chunkProvider, nms_chunk);
-        } catch (Exception e) {
+            Object nmsChunk = (Object) Handles.GET_CHUNK_HANDLE.invokeExact((Object) ch);
+            Object nmsWorld = (Object) Handles.GET_CHUNK_WORLD.invokeExact(nmsChunk);
+            Object chunkProvider = (Object) Handles.GET_CHUNK_PROVIDER.invokeExact(nmsWorld);
+            Handles.SAVE_CHUNK.invokeExact(chunkProvider, nmsChunk);
+            Handles.SAVE_CHUNK_NOP.invokeExact(chunkProvider, nmsChunk);
+        } catch (Throwable e) {
             e.printStackTrace();
         }
     }
@@ -264,25 +505,142 @@ public class NmsUtil {
                 ch.load();
                 break;
             case 2:
-                w.getPlayers().forEach(player -> {
-                    Location loc = ch.getBlock(7, player.getLocation().getBlockY(), 7).getLocation();
-                    if (player.getLocation().distance(loc) <= Bukkit.getServer().getViewDistance() * 16) {
-                        try {
-                            Object nmsPlayer = craftPlayer_getHandle.invoke(player);
-                            Object nmsChunk = craftChunk_getHandle.invoke(ch);
-                            Object nmsPlayerConnection = playerConnection.get(nmsPlayer);
-                            Object unloadPacket = newPacketUnloadChunk.newInstance(ch.getX(), ch.getZ());
-                            Object chunkPacket = newPacketOutChunk.newInstance(nmsChunk, 65535);
-                            sendPacket.invoke(nmsPlayerConnection, unloadPacket);
-                            sendPacket.invoke(nmsPlayerConnection, chunkPacket);
-                        } catch (Exception ignored) {
-                        }
-                    }
-                });
+                ChunkResendTask.addChunk(ch);
                 break;
             default:
                 w.refreshChunk(ch.getX(), ch.getZ());
                 break;
         }
     }
-}
\ No newline at end of file
+
+    public static Object createChunkPacket(Chunk ch) {
+        if (blocked) return null;
+        try {
+            Object nmsChunk = (Object) Handles.GET_CHUNK_HANDLE.invokeExact((Object) ch);
+            return (Object) Handles.NEW_CHUNK_PACKET.invokeExact(nmsChunk, 65535);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static Object createUnloadPacket(int chunkX, int chunkZ) {
+        if (blocked) return null;
+        try {
+            return (Object) Handles.NEW_UNLOAD_PACKET.invokeExact(chunkX, chunkZ);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static Object getPlayerConnection(Player player) {
+        if (blocked) return null;
+        try {
+            Object nmsPlayer = (Object) Handles.GET_PLAYER_HANDLE.invokeExact((Object) player);
+            return (Object) Handles.GET_PLAYER_CONNECTION.invokeExact(nmsPlayer);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static void sendPacket(Object connection, Object packet) {
+        if (blocked || connection == null || packet == null) return;
+        try {
+            Handles.SEND_PACKET.invokeExact(connection, packet);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * Method handles used by frequently called methods.
+     * Created from reflection objects found in NmsUtil static block,
+     * static final handles could be inlined by JIT.
+     */
+    private static class Handles {
+        private static final MethodHandle GET_WORLD_HANDLE = handle(craftWorld_getHandle);
+        private static final MethodHandle GET_WORLD_PROVIDER = getter(field_worldProvider);
+        private static final MethodHandle GET_CHUNK_MANAGER = getter(field_WorldProvider_d);
+        private static final MethodHandle NEW_BLOCK_POSITION = handle(constructBlockPosition);
+        private static final MethodHandle GET_BIOME = handle(getBiome);
+        private static final MethodHandle GET_BIOME_BLOCK = handle(getBiomeBlock);
+        private static final MethodHandle BIOME_BASE_TO_BIOME = handle(biomeBaseToBiome);
+        private static final MethodHandle BIOME_TO_BIOME_BASE = handle(biomeToBiomeBase);
+        private static final MethodHandle GET_BIOME_INDEX = handle(nmsChunk_getBiomeIndex);
+        private static final MethodHandle GET_CHUNK_HANDLE = handle(craftChunk_getHandle);
+        private static final MethodHandle GET_CHUNK_WORLD = getter(nms_chunk_world);
+        private static final MethodHandle GET_CHUNK_PROVIDER = handle(getChunkProvider);
+        private static final MethodHandle SAVE_CHUNK = noResult(saveChunkBool ?
+                bind(handle(saveChunk), 2, false) : handle(saveChunk));
+        private static final MethodHandle SAVE_CHUNK_NOP = noResult(handle(saveChunkNOP));
+        private static final MethodHandle GET_PLAYER_HANDLE = handle(craftPlayer_getHandle);
+        private static final MethodHandle GET_PLAYER_CONNECTION = getter(playerConnection);
+        private static final MethodHandle NEW_CHUNK_PACKET = handle(newPacketOutChunk);
+        private static final MethodHandle NEW_UNLOAD_PACKET = handle(newPacketUnloadChunk);
+        private static final MethodHandle SEND_PACKET = noResult(handle(sendPacket));
+        private static final MethodHandle GET_TEMPERATURE = handle(BiomeBase_getTemperature);
+        private static final MethodHandle SET_CHUNK_DONE = setter(field_NmsChunk_done);
+        private static final MethodHandle GET_FILE_IO_THREAD = handle(fileIOThread_getInstance);
+        private static final MethodHandle WAIT_FOR_SAVES = noResult(handle(fileIOThread_waitForSaves));
+        private static final MethodHandle GET_REGION_CACHE = getter(regionFileCache_cache);
+        private static final MethodHandle CLOSE_REGION_FILE = noResult(handle(regionFile_close));
+
+        private static MethodHandle handle(Method method) {
+            if (method == null) return null;
+            try {
+                return erase(MethodHandles.lookup().unreflect(method));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle handle(Constructor<?> constructor) {
+            if (constructor == null) return null;
+            try {
+                return erase(MethodHandles.lookup().unreflectConstructor(constructor));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle getter(Field field) {
+            if (field == null) return null;
+            try {
+                return erase(MethodHandles.lookup().unreflectGetter(field));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle setter(Field field) {
+            if (field == null) return null;
+            try {
+                return erase(MethodHandles.lookup().unreflectSetter(field));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle bind(MethodHandle handle, int pos, Object value) {
+            return handle == null ? null : MethodHandles.insertArguments(handle, pos, value);
+        }
+
+        private static MethodHandle noResult(MethodHandle handle) {
+            return handle == null ? null : handle.asType(handle.type().changeReturnType(void.class));
+        }
+
+        /**
+         * Replace all reference types with Object, so handles could be called
+         * with invokeExact without knowing NMS classes
+         */
+        private static MethodHandle erase(MethodHandle handle) {
+            MethodType type = handle.type();
+            for (int i = 0; i < type.parameterCount(); i++) {
+                if (!type.parameterType(i).isPrimitive()) type = type.changeParameterType(i, Object.class);
+            }
+            if (!type.returnType().isPrimitive()) type = type.changeReturnType(Object.class);
+            return handle.asType(type);
+        }
+    }
+}
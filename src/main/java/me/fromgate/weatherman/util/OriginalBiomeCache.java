@@ -0,0 +1,97 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *    
+ *  This file is part of WeatherMan.
+ *  
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package me.fromgate.weatherman.util;
+
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Original (generated) biomes are defined by world seed, so they are
+ * requested from world generator once per chunk and kept in LRU cache.
+ */
+public class OriginalBiomeCache {
+
+    private static final Biome[] BIOMES = Biome.values();
+
+    private static Map<ChunkKey, byte[]> chunks = new LinkedHashMap<ChunkKey, byte[]>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ChunkKey, byte[]> eldest) {
+            return size() > Math.max(1, Cfg.originalBiomeCacheSize);
+        }
+    };
+
+    public static synchronized Biome getBiome(World world, int x, int z) {
+        byte[] biomes = getChunkBiomes(world, x >> 4, z >> 4);
+        if (biomes == null) return null;
+        return BIOMES[biomes[((z & 15) << 4) | (x & 15)] & 0xFF];
+    }
+
+    private static byte[] getChunkBiomes(World world, int chunkX, int chunkZ) {
+        ChunkKey key = new ChunkKey(world.getUID(), chunkX, chunkZ);
+        byte[] biomes = chunks.get(key);
+        if (biomes == null) {
+            Biome[] generated = NmsUtil.getGeneratedBiomes(world, chunkX, chunkZ);
+            if (generated == null) return null;
+            biomes = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                biomes[i] = (byte) generated[i].ordinal();
+            }
+            chunks.put(key, biomes);
+        }
+        return biomes;
+    }
+
+    public static synchronized void clear() {
+        chunks.clear();
+    }
+
+    private static class ChunkKey {
+        private final UUID world;
+        private final int x;
+        private final int z;
+
+        ChunkKey(UUID world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChunkKey)) return false;
+            ChunkKey key = (ChunkKey) o;
+            return x == key.x && z == key.z && world.equals(key.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, x, z);
+        }
+    }
+}
@@ -24,12 +24,13 @@ package me.fromgate.weatherman.util;
 
 
 import me.fromgate.weatherman.WeatherMan;
-import me.fromgate.weatherman.localtime.LocalTime;
 import me.fromgate.weatherman.localweather.LocalWeather;
 import me.fromgate.weatherman.playerconfig.PlayerConfig;
+import me.fromgate.weatherman.queue.ChunkPreloader;
+import me.fromgate.weatherman.queue.QueueManager;
 import me.fromgate.weatherman.util.lang.M;
+import me.fromgate.weatherman.util.tasks.ChunkResendTask;
 import me.fromgate.weatherman.util.tasks.InfoTask;
-import me.fromgate.weatherman.util.tasks.LocalWeatherTask;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -52,12 +53,14 @@ import org.bukkit.event.block.SignChangeEvent;
 import org.bukkit.event.entity.CreatureSpawnEvent;
 import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 import org.bukkit.event.entity.ProjectileHitEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
-import org.bukkit.event.player.PlayerRespawnEvent;
-import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.weather.WeatherChangeEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 
 public class WMListener implements Listener {
     WeatherMan plg;
@@ -77,6 +80,17 @@ public class WMListener implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        PlayerConfig.prefetchPlayerData(event.getName());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) PlayerConfig.discardPrefetched(event.getPlayer().getName());
+    }
+
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player p = event.getPlayer();
@@ -209,7 +223,7 @@ public class WMListener implements Listener {
                                     BiomeTools.floodFill(null, sign.getLocation(), biome);
                                     break;
                                 case 2:
-                                    BiomeTools.setBiomeArea(null, loc1, loc2, biome, null);
+                                    BiomeTools.setBiomeArea(null, loc1, loc2, biome, null, false);
                                     break;
                             }
                             sign.update(true);
@@ -236,22 +250,14 @@ public class WMListener implements Listener {
 
     }
 
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onPlayerJoinWeatherTime(PlayerJoinEvent event) {
-        LocalWeather.updatePlayerRain(event.getPlayer());
-        LocalTime.updatePlayerTime(event.getPlayer());
-    }
-
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onPlayerRespawn(PlayerRespawnEvent event) {
-        LocalWeather.updatePlayerRain(event.getPlayer());
-        LocalTime.updatePlayerTime(event.getPlayer());
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        QueueManager.chunkLoaded(event.getChunk());
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onPlayerTeleport(PlayerTeleportEvent event) {
-        LocalWeather.updatePlayerRain(event.getPlayer());
-        LocalTime.updatePlayerTime(event.getPlayer());
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        if (ChunkPreloader.isPinned(event.getChunk())) event.setCancelled(true);
     }
 
     @EventHandler
@@ -259,7 +265,7 @@ public class WMListener implements Listener {
         Player player = event.getPlayer();
         PlayerConfig.quitPlayer(player);
         InfoTask.removePrevLocation(player);
-        LocalWeatherTask.removePrevLocation(player);
+        ChunkResendTask.removePlayer(player);
     }
 
 
@@ -26,6 +26,7 @@ import com.sk89q.worldedit.bukkit.WorldEditPlugin;
 import com.sk89q.worldedit.bukkit.selections.Selection;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.managers.RegionManager;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -111,6 +112,11 @@ public class WMWorldEdit {
         return false;
     }
 
+    public static RegionManager getRegionManager(World world) {
+        if (!worldguardActive || world == null) return null;
+        return worldguard.getRegionManager(world);
+    }
+
     public static List<String> getRegions(Location loc) {
         List<String> rgList = new ArrayList<>();
         if (!WMWorldEdit.isWG()) return rgList;
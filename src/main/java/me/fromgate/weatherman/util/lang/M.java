@@ -79,6 +79,9 @@ public enum M {
     CMD_SET("%1% - set the biome around the player or at defined WorldGuard region (if radius or region name is skipped it will change biome at selected WorldEdit region)"),
     CMD_WAND("%1% - toggles wand mode"),
     CMD_WALKINFO("%1% - toggles walk-info mode"),
+    CMD_UNDO("%1% - undo your last biome change"),
+    CMD_REDO("%1% - redo biome change reverted by undo command"),
+    CMD_SNAPSHOT("%1% - save biomes of selected WorldEdit region (or WorldGuard region) to file or restore them"),
     MSG_WRONG("Something wrong (check command, permissions)"),
     MSG_BIOMELIST("Biome list: %1%"),
     MSG_BIOMELOC("Biome in your location is set to %1%"),
@@ -204,6 +207,20 @@ public enum M {
     MSG_WRONGLOCATION("Wrong location format", 'c'),
     MSG_QUEUEBIOMEFINISH("Biome changed. Time %1% Chunks: %2% Columns: %3%"),
     MSG_QUEUEPOPULATEFINISH("Area repopulated Time %1% Chunks: %2% Columns: %3%"),
+    MSG_QUEUEPROGRESS("Processed chunks: %1% / %2% (%3%%). Time left: %4%"),
+    MSG_FLOODFILLTOOLARGE("Flood fill stopped: area is larger than %1% columns, only part of it was changed"),
+    MSG_FLOODFILLPROGRESS("Flood fill: %1% columns found. Processed chunks: %2% / %3%"),
+    MSG_OFFLINEUNSUPPORTED("Offline mode is not supported by this server version. Biomes will be changed in loaded chunks."),
+    MSG_QUEUERESUMED("Unfinished biome queue restored. World: %1% Chunks: %2%"),
+    MSG_UNDONOTHING("Nothing to undo"),
+    MSG_REDONOTHING("Nothing to redo"),
+    MSG_UNDOSTARTED("Restoring biomes. Chunks: %1%"),
+    MSG_SNAPSHOTSAVESTARTED("Saving biome snapshot %1%. Chunks: %2%"),
+    MSG_SNAPSHOTSAVED("Biome snapshot %1% saved. Chunks: %2% File size: %3% KB"),
+    MSG_SNAPSHOTLOADED("Biome snapshot %1% loaded. Restoring biomes. Chunks: %2%"),
+    MSG_SNAPSHOTNOTFOUND("Biome snapshot %1% not found", 'c'),
+    MSG_SNAPSHOTFAILED("Failed to process biome snapshot %1%", 'c'),
+    MSG_SNAPSHOTTOOLARGE("Area is too large for biome snapshot: %1% chunks (maximum: %2%)", 'c'),
     MINSEC("%1% min. %2% sec."),
     SEC("%1% sec."),
     MSG_WANDCONFIG("Wand: %1% Biome: %2% Radius: %3% Tree: %4%"),
@@ -0,0 +1,147 @@
+/*
+ *  WeatherMan, Minecraft bukkit plugin
+ *  ©2012-2018, fromgate, fromgate@gmail.com
+ *  https://www.spigotmc.org/resources/weatherman.43379/
+ *
+ *  This file is part of WeatherMan.
+ *
+ *  WeatherMan is free software: you can redistribute it and/or modify
+ *	it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherMan is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherMan.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package me.fromgate.weatherman.util.tasks;
+
+import me.fromgate.weatherman.WeatherMan;
+import me.fromgate.weatherman.queue.WMChunk;
+import me.fromgate.weatherman.util.Cfg;
+import me.fromgate.weatherman.util.NmsUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Resends changed chunks to players (chunk-update-method: 2).
+ * Chunks changed during the tick are collected and queued only for players that can see this chunk.
+ * Chunk packet is created when it is sent (once per chunk and tick), so players receive actual chunk data.
+ * Count of chunks sent to every player per tick is limited (queue.resend-chunks-per-tick).
+ */
+public class ChunkResendTask extends BukkitRunnable {
+
+    private static ChunkResendTask task = null;
+    private static Map<World, Set<Long>> dirtyChunks = new HashMap<>();
+    private static Map<UUID, LinkedHashMap<Long, PendingChunk>> outbound = new HashMap<>();
+
+    public static void addChunk(Chunk chunk) {
+        dirtyChunks.computeIfAbsent(chunk.getWorld(), w -> new LinkedHashSet<>())
+                .add(WMChunk.key(chunk.getX(), chunk.getZ()));
+        if (task == null) {
+            task = new ChunkResendTask();
+            task.runTaskTimer(WeatherMan.getPlugin(), 1, 1);
+        }
+    }
+
+    public static void removePlayer(Player player) {
+        outbound.remove(player.getUniqueId());
+    }
+
+    @Override
+    public void run() {
+        int viewDistance = Bukkit.getServer().getViewDistance();
+        queueChunks(viewDistance);
+        sendPackets(viewDistance);
+        if (dirtyChunks.isEmpty() && outbound.isEmpty()) {
+            this.cancel();
+            task = null;
+        }
+    }
+
+    private void queueChunks(int viewDistance) {
+        for (Map.Entry<World, Set<Long>> entry : dirtyChunks.entrySet()) {
+            World world = entry.getKey();
+            if (world.getPlayers().isEmpty()) continue;
+            for (long key : entry.getValue()) {
+                int x = WMChunk.keyX(key);
+                int z = WMChunk.keyZ(key);
+                if (!world.isChunkLoaded(x, z)) continue;
+                PendingChunk pending = new PendingChunk(world, x, z);
+                for (Player player : world.getPlayers()) {
+                    if (!isInView(player.getLocation(), x, z, viewDistance)) continue;
+                    outbound.computeIfAbsent(player.getUniqueId(), u -> new LinkedHashMap<>()).put(key, pending);
+                }
+            }
+        }
+        dirtyChunks.clear();
+    }
+
+    private void sendPackets(int viewDistance) {
+        // Packets created during this tick
+        Map<World, Map<Long, Object>> packets = new HashMap<>();
+        Iterator<Map.Entry<UUID, LinkedHashMap<Long, PendingChunk>>> players = outbound.entrySet().iterator();
+        while (players.hasNext()) {
+            Map.Entry<UUID, LinkedHashMap<Long, PendingChunk>> entry = players.next();
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null || !player.isOnline()) {
+                players.remove();
+                continue;
+            }
+            Object connection = NmsUtil.getPlayerConnection(player);
+            Location loc = player.getLocation();
+            int sent = 0;
+            Iterator<PendingChunk> chunks = entry.getValue().values().iterator();
+            while (chunks.hasNext() && sent < Cfg.resendChunksPerTick) {
+                PendingChunk chunk = chunks.next();
+                chunks.remove();
+                if (connection == null) continue;
+                if (!chunk.world.equals(loc.getWorld()) || !isInView(loc, chunk.x, chunk.z, viewDistance)) continue;
+                if (!chunk.world.isChunkLoaded(chunk.x, chunk.z)) continue;
+                Object packet = packets.computeIfAbsent(chunk.world, w -> new HashMap<>())
+                        .computeIfAbsent(WMChunk.key(chunk.x, chunk.z),
+                                k -> NmsUtil.createChunkPacket(chunk.world.getChunkAt(chunk.x, chunk.z)));
+                if (packet == null) continue;
+                NmsUtil.sendPacket(connection, NmsUtil.createUnloadPacket(chunk.x, chunk.z));
+                NmsUtil.sendPacket(connection, packet);
+                sent++;
+            }
+            if (entry.getValue().isEmpty()) players.remove();
+        }
+    }
+
+    private static boolean isInView(Location loc, int chunkX, int chunkZ, int viewDistance) {
+        return Math.abs((loc.getBlockX() >> 4) - chunkX) <= viewDistance
+                && Math.abs((loc.getBlockZ() >> 4) - chunkZ) <= viewDistance;
+    }
+
+    private static class PendingChunk {
+        private final World world;
+        private final int x;
+        private final int z;
+
+        PendingChunk(World world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+    }
+}